@@ -1,7 +1,5 @@
 import java.awt.Color;
 import java.awt.Graphics;
-import java.io.BufferedWriter;
-import java.io.IOException;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -188,31 +186,28 @@ public abstract class Agent {
         
         /**
          * Write XML attributes specifying the agent attribute structure
-         * to the file specified by out.
+         * to the log text in out.
          * 
-         * @param out destination file 
-         * @throws IOException if writing fails
+         * @param out log text being built up
          */
-        public void log(BufferedWriter out) 
-        throws IOException {
+        public void log(LogEncoder out) {
             double fov = RADIANS_TO_DEGREES * fieldOfViewEachSide;
             double mt = RADIANS_TO_DEGREES * maxTurn;
             
-            out.write(
-                    SIZE_PARAM + OPEN + Integer.toString(size) + CLOSE +
-                    MAX_FORWARD_PARAM + OPEN + Double.toString(maxSpeedForward) + CLOSE +
-                    MAX_BACKWARD_PARAM + OPEN + Double.toString(maxSpeedBackward) + CLOSE +
-                    MAX_ACCEL_PARAM + OPEN + Double.toString(maxAccel) + CLOSE +
-                    MAX_DECEL_PARAM + OPEN + Double.toString(maxDecel) + CLOSE +
-                    MAX_TURN_PARAM + OPEN + Double.toString(mt) + CLOSE +
-                    STRENGTH_PARAM + OPEN + Integer.toString(strength) + CLOSE +
-                    FIELD_OF_VIEW_PARAM + OPEN + Double.toString(fov) + CLOSE +
-                    R_PARAM + OPEN + Integer.toString(color.getRed()) + CLOSE +
-                    G_PARAM + OPEN + Integer.toString(color.getGreen()) + CLOSE +
-                    B_PARAM + OPEN + Integer.toString(color.getBlue()) + CLOSE +
-                    DEBUG_PARAM + OPEN + Boolean.toString(debug) + CLOSE +
-                    EXTENSIONS_PARAM + OPEN + Boolean.toString(withExtensions) + CLOSE +
-                    "\n");
+            out.attribute(SIZE_PARAM, size)
+               .attribute(MAX_FORWARD_PARAM, maxSpeedForward)
+               .attribute(MAX_BACKWARD_PARAM, maxSpeedBackward)
+               .attribute(MAX_ACCEL_PARAM, maxAccel)
+               .attribute(MAX_DECEL_PARAM, maxDecel)
+               .attribute(MAX_TURN_PARAM, mt)
+               .attribute(STRENGTH_PARAM, strength)
+               .attribute(FIELD_OF_VIEW_PARAM, fov)
+               .attribute(R_PARAM, color.getRed())
+               .attribute(G_PARAM, color.getGreen())
+               .attribute(B_PARAM, color.getBlue())
+               .attribute(DEBUG_PARAM, debug)
+               .attribute(EXTENSIONS_PARAM, withExtensions)
+               .write("\n");
         }
         
         /**
@@ -274,6 +269,14 @@ public abstract class Agent {
          * @param a attributes to mirror
          */
         DynamicAgentAttributes(DynamicAgentAttributes a){
+            copy(a);
+        }
+
+        /**
+         * Take on the values of another set of attributes
+         * @param a attributes to mirror
+         */
+        void copy(DynamicAgentAttributes a) {
             locX = a.locX;
             locY = a.locY;
             heading = a.heading;
@@ -311,21 +314,30 @@ public abstract class Agent {
 
         /**
          * Write XML attributes specifying the agent attribute structure 
-         * to the file given by out.
+         * to the log text in out.
          *  
-         * @param out destination file
-         * @throws IOException if writing fails
+         * @param out log text being built up
          */
-        public void log(BufferedWriter out)
-        throws IOException {
-            double degrees = heading * RADIANS_TO_DEGREES;
-            
-            out.write(
-                    X_PARAM + OPEN + Double.toString(locX) + CLOSE +
-                    Y_PARAM + OPEN + Double.toString(locY) + CLOSE +
-                    HEADING_PARAM + OPEN + Double.toString(degrees) + CLOSE +
-                    FORWARD_PARAM + OPEN + Double.toString(forwardV) + CLOSE +
-                    "\n");
+        public void log(LogEncoder out) {
+            log(out, locX, locY, heading * RADIANS_TO_DEGREES, forwardV);
+        }
+
+        /**
+         * Write XML attributes for the passed dynamic parameters,
+         * as log(out) would write them for an agent in that state.
+         *
+         * @param out log text being built up
+         * @param x horizontal coordinate of agent
+         * @param y vertical coordinate of agent
+         * @param degrees direction agent is facing, in degrees
+         * @param v rate of motion in the forward direction
+         */
+        static void log(LogEncoder out, double x, double y, double degrees, double v) {
+            out.attribute(X_PARAM, x)
+               .attribute(Y_PARAM, y)
+               .attribute(HEADING_PARAM, degrees)
+               .attribute(FORWARD_PARAM, v)
+               .write("\n");
         }
         
         /**
@@ -375,7 +387,11 @@ public abstract class Agent {
     /** What are the general characteristics of the agent */
     protected FixedAgentAttributes form;
     
-    /** What is the agent doing right now */
+    /**
+     * What is the agent doing right now.  While the agent lives in
+     * a packed store, the store holds its location, heading and
+     * speed instead, so read and change them with the accessors.
+     */
     protected DynamicAgentAttributes status;
     
     /** Actions computed by deliberation that have yet to be acted on */
@@ -383,6 +399,27 @@ public abstract class Agent {
     
     /** Preserve last status for debugging visualization */
     protected DynamicAgentAttributes lastStatus = null;
+
+    /** Status as last written to the log, or null if not yet written */
+    private DynamicAgentAttributes logged = null;
+
+    /** Packed storage the world keeps this agent's status in, if any */
+    AgentStore store = null;
+
+    /** Where this agent's status lives in store */
+    int slot = -1;
+
+    /** Step on which the world last moved this agent */
+    int movedOn = -1;
+
+    /** When the world took this agent in; increases along the world's agent list */
+    int seq = -1;
+
+    /** Heading the agent has chosen to take up on its next move */
+    private double nextHeading;
+
+    /** Forward velocity the agent has chosen to take up on its next move */
+    private double nextForwardV;
     
     /**
      * Accessor methods
@@ -392,28 +429,37 @@ public abstract class Agent {
      * @return current horizontal coordinate of agent
      */
     public double getLocX() {
-        return status.locX;
+        return store != null ? store.locX[slot] : status.locX;
     }
 
     /**
      * @return current vertical coordinate of agent
      */
     public double getLocY() {
-        return status.locY;
+        return store != null ? store.locY[slot] : status.locY;
     }
 
     /**
      * @return direction agent is currently facing
      */
     public double getHeading() {
-        return status.heading;
+        return store != null ? store.heading[slot] : status.heading;
     }
 
     /**
      * @return rate at which agent is moving in the direction of heading
      */
     public double getForwardV() {
-        return status.forwardV;
+        return store != null ? store.forwardV[slot] : status.forwardV;
+    }
+
+    /**
+     * @return the farthest the agent can travel in the coming step,
+     *         given its current speed and its speed limits
+     */
+    public double getMaxStep() {
+        return Math.max(Math.abs(getForwardV()),
+                Math.max(form.maxSpeedForward, form.maxSpeedBackward));
     }
 
     /**
@@ -454,9 +500,11 @@ public abstract class Agent {
     }
     
     /**
-     * Mark an agent as dead.
+     * Mark an agent as dead, and let its world know there is a corpse.
      */
     public void die() {
+        if (isAlive && myWorld != null)
+            myWorld.noteDeath();
         isAlive = false;
         form.color = Color.BLACK;
     }
@@ -466,7 +514,10 @@ public abstract class Agent {
      * @param x in pixels
      */
     public void setLocX(double x) {
-        status.locX = x;        
+        if (store != null)
+            store.locX[slot] = x;
+        else
+            status.locX = x;        
     }
     
     /**
@@ -474,7 +525,10 @@ public abstract class Agent {
      * @param y in pixels
      */
     public void setLocY(double y) {
-        status.locY = y;
+        if (store != null)
+            store.locY[slot] = y;
+        else
+            status.locY = y;
     }
     
     /**
@@ -482,7 +536,10 @@ public abstract class Agent {
      * @param h in radians, 0 is right, PI/2 is down, -PI/2 is up
      */
     public void setHeading(double h) {
-        status.heading = h;
+        if (store != null)
+            store.heading[slot] = h;
+        else
+            status.heading = h;
     }
     
     /**
@@ -490,7 +547,68 @@ public abstract class Agent {
      * @param s in pixels per step, can be negative
      */
     public void setForwardV(double s) {
-        status.forwardV = s;
+        if (store != null)
+            store.forwardV[slot] = s;
+        else
+            status.forwardV = s;
+    }
+
+    /**
+     * Keep this agent's location, heading and speed in the passed
+     * slot of a packed store from now on, starting from status
+     * @param s store to use
+     * @param i slot within s
+     */
+    void bind(AgentStore s, int i) {
+        store = s;
+        slot = i;
+        syncStore();
+    }
+
+    /**
+     * Stop using packed storage, taking the current values
+     * back into status
+     */
+    void unbind() {
+        syncStatus();
+        store = null;
+        slot = -1;
+    }
+
+    /**
+     * Copy status into the packed store
+     */
+    private void syncStore() {
+        if (store != null) {
+            store.locX[slot] = status.locX;
+            store.locY[slot] = status.locY;
+            store.heading[slot] = status.heading;
+            store.forwardV[slot] = status.forwardV;
+        }
+    }
+
+    /**
+     * Copy the values in the packed store into status
+     */
+    private void syncStatus() {
+        if (store != null) {
+            status.locX = store.locX[slot];
+            status.locY = store.locY[slot];
+            status.heading = store.heading[slot];
+            status.forwardV = store.forwardV[slot];
+        }
+    }
+
+    /**
+     * Write XML attributes giving the agent's location,
+     * heading and speed, as status.log would for an agent
+     * that keeps them in status
+     *
+     * @param out log text being built up
+     */
+    protected void logStatus(LogEncoder out) {
+        DynamicAgentAttributes.log(out, getLocX(), getLocY(),
+                getHeading() * RADIANS_TO_DEGREES, getForwardV());
     }
     
     /**
@@ -508,7 +626,7 @@ public abstract class Agent {
      * @return radius in pixels
      */
     protected double turningRadius() {
-        return (Math.abs(status.forwardV) / Math.sin(form.maxTurn));
+        return (Math.abs(getForwardV()) / Math.sin(form.maxTurn));
     }
     
     /**
@@ -518,11 +636,90 @@ public abstract class Agent {
      * 
      * @param x horizontal coordinate of click
      * @param y vertical coordinate of click
+     * @param locX horizontal coordinate of the agent
+     * @param locY vertical coordinate of the agent
      * @return inside or outside
      */
-    public boolean isInside(int x, int y) {
-        return (x >= status.locX - form.size / 2 && x < status.locX + form.size / 2 &&
-                y >= status.locY - form.size / 2 && y < status.locY + form.size / 2);
+    public boolean isInside(int x, int y, double locX, double locY) {
+        return (x >= locX - form.size / 2 && x < locX + form.size / 2 &&
+                y >= locY - form.size / 2 && y < locY + form.size / 2);
+    }
+
+    /**
+     * Shape hooks.  By default an agent is sensed at its location
+     * and gets in the way with the square box of its size around
+     * its location.  Agents with other shapes override all of these.
+     */
+
+    /**
+     * @return how far the agent reaches to either side of its location
+     */
+    public double getHalfWidth() {
+        return (double) getSize() / 2;
+    }
+
+    /**
+     * @return how far the agent reaches above and below its location
+     */
+    public double getHalfHeight() {
+        return (double) getSize() / 2;
+    }
+
+    /**
+     * Is this agent spread out, so that others see its nearest
+     * part (see nearestPart) rather than its location?
+     *
+     * @return false by default
+     */
+    public boolean isExtended() {
+        return false;
+    }
+
+    /**
+     * Where is the part of this agent nearest to an observer?
+     * By default that is just the agent's location.
+     *
+     * @param dx horizontal displacement from observer to this agent's location
+     * @param dy vertical displacement from observer to this agent's location
+     * @param to where to put the displacement from observer to nearest part,
+     *           horizontal then vertical
+     */
+    public void nearestPart(double dx, double dy, double[] to) {
+        to[0] = dx;
+        to[1] = dy;
+    }
+
+    /**
+     * How far do you get on the path from (ax0, ay0) to (ax1, ay1)
+     * before you run into this agent, shifted by (shiftX, shiftY)?
+     * By default tests the box of the agent's size around it
+     * (see World.detectOverlap).
+     *
+     * @param ax0 horizontal coordinate of start of path
+     * @param ay0 vertical coordinate of start of path
+     * @param ax1 horizontal coordinate of end of path
+     * @param ay1 vertical coordinate of end of path
+     * @param shiftX horizontal shift to the copy of this agent to test
+     * @param shiftY vertical shift to the copy of this agent to test
+     * @return fraction of the path travelled before the collision,
+     *         or World.NO_COLLISION
+     */
+    public double detectCollision(double ax0, double ay0, double ax1, double ay1,
+            double shiftX, double shiftY) {
+        final double size = (double) getSize() / 2;
+        double bl = getLocX() - size;
+        double bt = getLocY() - size;
+        double br = getLocX() + size;
+        double bb = getLocY() + size;
+        if (shiftX != 0) {
+            bl += shiftX;
+            br += shiftX;
+        }
+        if (shiftY != 0) {
+            bt += shiftY;
+            bb += shiftY;
+        }
+        return World.detectOverlap(ax0, ay0, ax1, ay1, bl, bt, br, bb);
     }
 
     /**
@@ -531,26 +728,29 @@ public abstract class Agent {
      * in the current time step.  Enforces bounds on 
      * minimum and maximum acceleration.
      * 
+     * @param v forward velocity before the change
      * @param delta in pixels per step per step
+     * @return forward velocity after the change
      */
-    private void changeSpeed(double delta) {
+    private double changeSpeed(double v, double delta) {
         boolean isAccelerating = 
-            (status.forwardV > 0 && delta > 0) ||
-            (status.forwardV < 0 && delta < 0);     
+            (v > 0 && delta > 0) ||
+            (v < 0 && delta < 0);     
 
         double limit = isAccelerating ? form.maxAccel : form.maxDecel;
         double difference = Math.min(Math.abs(delta), limit);
         
         if (delta < 0) {
-            status.forwardV -= difference;
-            if (status.forwardV < -form.maxSpeedBackward)
-                status.forwardV = -form.maxSpeedBackward;
+            v -= difference;
+            if (v < -form.maxSpeedBackward)
+                v = -form.maxSpeedBackward;
         }
         else {
-            status.forwardV += difference;
-            if (status.forwardV > form.maxSpeedForward)
-                status.forwardV = form.maxSpeedForward;
+            v += difference;
+            if (v > form.maxSpeedForward)
+                v = form.maxSpeedForward;
         }
+        return v;
     }
 
     /**
@@ -558,15 +758,17 @@ public abstract class Agent {
      * is delta; however bounds on maximum turning per step
      * are enforced.
      * 
+     * @param heading direction before the turn
      * @param delta in radians, positive right, negative left
+     * @return direction after the turn
      */
-    private void turn(double delta) {
+    private double turn(double heading, double delta) {
         double difference = Math.min(Math.abs(delta), form.maxTurn);
         if (delta < 0) {
-            status.heading = World.clampToCircle(status.heading - difference, 2 * Math.PI);
+            return World.clampToCircle(heading - difference, 2 * Math.PI);
         }
         else {
-            status.heading = World.clampToCircle(status.heading + difference, 2 * Math.PI);
+            return World.clampToCircle(heading + difference, 2 * Math.PI);
         }
     }
 
@@ -575,21 +777,23 @@ public abstract class Agent {
      * in the direction given by the current heading.
      */
     private void go() {
-        double newLocX = status.locX + status.forwardV * Math.cos(status.heading);
-        double newLocY = status.locY + status.forwardV * Math.sin(status.heading);
-        myWorld.tryToMove(this, newLocX, newLocY);  
+        myWorld.tryToMove(this, plannedLocX(), plannedLocY());  
     }
 
     /**
-     * Carry out the motion actions given by the agent's todo list.
-     * That includes one turning action, and one action of changing speed.
-     * Then move the agent one step.
+     * Work out the heading and speed the agent's todo list calls for:
+     * one turning action, and one action of changing speed.
+     * Only the agent's plan changes, not its status, so agents
+     * can plan at the same time while others read their status.
      */
-    public void act() {
+    void plan() {
         Set<Intention.ActionType> done = new HashSet<Intention.ActionType>();
-        
-        lastStatus = new DynamicAgentAttributes(status);
-        
+
+        nextHeading = getHeading();
+        nextForwardV = getForwardV();
+        if (todo == null)
+            return;
+
         for (Intention a: todo)
         {
             Intention.ActionType t = a.getType();
@@ -599,14 +803,47 @@ public abstract class Agent {
             done.add(t);
             switch (t) {
             case TURN:
-                turn(a.getParam());
+                nextHeading = turn(nextHeading, a.getParam());
                 break;
             case CHANGE_SPEED:
-                changeSpeed(a.getParam());
+                nextForwardV = changeSpeed(nextForwardV, a.getParam());
                 break;
             }
         }
-        
+    }
+
+    /**
+     * @return horizontal coordinate the agent's plan would take it to
+     */
+    double plannedLocX() {
+        return getLocX() + nextForwardV * Math.cos(nextHeading);
+    }
+
+    /**
+     * @return vertical coordinate the agent's plan would take it to
+     */
+    double plannedLocY() {
+        return getLocY() + nextForwardV * Math.sin(nextHeading);
+    }
+
+    /**
+     * Take up the heading and speed worked out by plan,
+     * remembering the old status.  The agent is ready to move.
+     */
+    void commitPlan() {
+        lastStatus = new DynamicAgentAttributes(getLocX(), getLocY(), getHeading(), getForwardV());
+        setHeading(nextHeading);
+        setForwardV(nextForwardV);
+    }
+
+    /**
+     * Carry out the motion actions given by the agent's todo list.
+     * That includes one turning action, and one action of changing speed.
+     * Then move the agent one step.
+     */
+    public void act() {
+        plan();
+        commitPlan();
         go();
     }
 
@@ -618,21 +855,80 @@ public abstract class Agent {
     /**
      * Write a complete XML description of the agent
      * 
-     * @param out destination channel for XML element
-     * @throws IOException in case writing fails
+     * @param out log text being built up
      */
-    public abstract void log(BufferedWriter out) throws IOException;
+    public abstract void log(LogEncoder out);
     
     /**
      * Write an XML description of the dynamic properties of the agent
      * 
-     * @param out destination channel for XML element
-     * @throws IOException in case writing fails
+     * @param out log text being built up
+     */
+    public void changelog(LogEncoder out) {
+        logUpdate(out, id, getLocX(), getLocY(), getHeading() * RADIANS_TO_DEGREES, getForwardV());
+    }
+
+    /**
+     * Remember the current dynamic properties of the agent as the
+     * ones the log now holds, for logsChanged to compare against
      */
-    public void changelog(BufferedWriter out) throws IOException {
-        out.write("   <" + UPDATE + " " + ID_PARAM + OPEN + Integer.toString(id) + CLOSE +
-        "\n    ");
-        status.log(out);
+    public void markLogged() {
+        if (logged == null)
+            logged = new DynamicAgentAttributes(getLocX(), getLocY(), getHeading(), getForwardV());
+        else {
+            logged.locX = getLocX();
+            logged.locY = getLocY();
+            logged.heading = getHeading();
+            logged.forwardV = getForwardV();
+        }
+    }
+
+    /**
+     * Check whether the dynamic properties of the agent have moved
+     * more than epsilon from the ones last logged, in the units
+     * the log gives them in, and if so remember the current ones
+     * as logged.  An agent that has never been logged has always moved.
+     *
+     * @param epsilon largest change that can go unlogged;
+     *                0 to log any change at all
+     * @return true if the agent should be logged this step
+     */
+    public boolean logsChanged(double epsilon) {
+        if (logged != null
+                && Math.abs(getLocX() - logged.locX) <= epsilon
+                && Math.abs(getLocY() - logged.locY) <= epsilon
+                && Math.abs((getHeading() - logged.heading) * RADIANS_TO_DEGREES) <= epsilon
+                && Math.abs(getForwardV() - logged.forwardV) <= epsilon)
+            return false;
+        markLogged();
+        return true;
+    }
+
+    /**
+     * Record the dynamic properties of the agent in a binary
+     * trajectory log, with the same values changelog(out) writes
+     *
+     * @param log binary log being written
+     * @param out log text being built up
+     */
+    public void changelog(TrajectoryLog log, LogEncoder out) {
+        log.update(out, id, getLocX(), getLocY(), getHeading() * RADIANS_TO_DEGREES, getForwardV());
+    }
+
+    /**
+     * Write the XML update element changelog writes for
+     * agent id in the passed dynamic state
+     *
+     * @param out log text being built up
+     * @param id identifier of the agent
+     * @param x horizontal coordinate of agent
+     * @param y vertical coordinate of agent
+     * @param degrees direction agent is facing, in degrees
+     * @param v rate of motion in the forward direction
+     */
+    static void logUpdate(LogEncoder out, int id, double x, double y, double degrees, double v) {
+        out.write("   <" + UPDATE + " ").attribute(ID_PARAM, id).write("\n    ");
+        DynamicAgentAttributes.log(out, x, y, degrees, v);
         out.write("    />\n");
     }
     
@@ -647,15 +943,25 @@ public abstract class Agent {
     public void update(Attributes atts, Locator loc)
     throws SAXException {
         form.update(atts, loc);
+        syncStatus();
         status.update(atts, loc);
+        syncStore();
+        if (myWorld != null)
+            myWorld.noteUpdate(this);
     }
     
     
     /**
-     * renders a picture of the agent into the world display
+     * renders a picture of the agent into the world display,
+     * as it was when the world took a snapshot of it, so drawing
+     * never looks at an agent that may be in the middle of a step
      * @param g graphics information
+     * @param x horizontal coordinate the agent had
+     * @param y vertical coordinate the agent had
+     * @param heading direction the agent faced
+     * @param color color the agent had
      */
-    public abstract void draw(Graphics g);
+    public abstract void draw(Graphics g, double x, double y, double heading, Color color);
     
     /**
      * @return the type information that you can tell about agent
@@ -682,6 +988,40 @@ public abstract class Agent {
         return InteractiveBehavior.COEXIST;
     }
 
+    /**
+     * Does this agent make any use of what it sees?
+     * The world does not bother sensing for agents that
+     * say no, and never calls their deliberate method,
+     * so their todo list stays as it is.
+     * 
+     * @return true by default
+     */
+    public boolean perceives() {
+        return true;
+    }
+
+    /**
+     * Which percepts does this agent's deliberation make use of?
+     * The world leaves out everything else when it senses for
+     * the agent, so narrowing this down saves work; but it must
+     * never leave out anything the agent could respond to.
+     * 
+     * @return PerceptFilter.EVERYTHING by default
+     */
+    public PerceptFilter interests() {
+        return PerceptFilter.EVERYTHING;
+    }
+
+    /**
+     * Could this agent change its position when it acts?
+     * The world skips the action step for agents that say no.
+     * 
+     * @return true by default
+     */
+    public boolean moves() {
+        return true;
+    }
+
     /**
      * Method each agent uses to update its
      * internal todo list on the basis of a 
@@ -691,4 +1031,18 @@ public abstract class Agent {
      *           from the agent's perspective
      */
     public abstract void deliberate(List<Percept> ps);
+
+    /**
+     * Version of deliberate the world calls, with percepts
+     * also grouped by category.  By default it just hands the
+     * whole list to deliberate(List); agents that only care about
+     * some kinds of things can override it to pass on just the
+     * views they need.
+     * 
+     * @param ps Specification of the other agents in the world
+     *           from the agent's perspective
+     */
+    public void deliberate(PerceptList ps) {
+        deliberate((List<Percept>) ps);
+    }
 }
@@ -0,0 +1,129 @@
+/**
+ * Map from agent id to agent, so the world can find an agent
+ * by id without scanning its agent list.  Keys are plain ints
+ * kept in an open-addressing table with linear probing, so
+ * lookups do not box the id or chase list nodes.
+ *
+ * @version 1.0
+ */
+public class AgentIndex {
+
+    /** Agent filed in each bucket, or null if the bucket is empty */
+    private Agent[] agents;
+    /** Id of the agent in each occupied bucket */
+    private int[] ids;
+    /** Number of occupied buckets */
+    private int size;
+
+    /**
+     * Constructor for an empty index
+     */
+    public AgentIndex() {
+        agents = new Agent[16];
+        ids = new int[16];
+        size = 0;
+    }
+
+    /**
+     * @return number of agents in the index
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Bucket where the search for an id starts
+     */
+    private int home(int id) {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (agents.length - 1);
+    }
+
+    /**
+     * Bucket holding id, or the empty bucket where it would go
+     */
+    private int find(int id) {
+        int mask = agents.length - 1;
+        int i = home(id);
+        while (agents[i] != null && ids[i] != id) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * @param id creation index for some agent
+     * @return agent with that id, or null if there is none
+     */
+    public Agent get(int id) {
+        return agents[find(id)];
+    }
+
+    /**
+     * File an agent under its id, unless another agent
+     * already has that id.
+     *
+     * @param a agent to add
+     * @return true if a was filed
+     */
+    public boolean add(Agent a) {
+        int i = find(a.getId());
+        if (agents[i] != null)
+            return false;
+        agents[i] = a;
+        ids[i] = a.getId();
+        size++;
+        if (2 * size > agents.length)
+            grow();
+        return true;
+    }
+
+    /**
+     * Take an agent out of the index.
+     *
+     * @param a agent to remove; ignored if some other agent
+     *          (or nobody) is filed under its id
+     * @return true if a was removed
+     */
+    public boolean remove(Agent a) {
+        int mask = agents.length - 1;
+        int i = find(a.getId());
+        if (agents[i] != a)
+            return false;
+        agents[i] = null;
+        size--;
+
+        // shift later members of the probe run back into the gap
+        int gap = i;
+        int j = (i + 1) & mask;
+        while (agents[j] != null) {
+            int h = home(ids[j]);
+            // move j to gap unless its home lies cyclically in (gap, j]
+            if (((j - h) & mask) >= ((j - gap) & mask)) {
+                agents[gap] = agents[j];
+                ids[gap] = ids[j];
+                agents[j] = null;
+                gap = j;
+            }
+            j = (j + 1) & mask;
+        }
+        return true;
+    }
+
+    /**
+     * Double the table and file everyone again
+     */
+    private void grow() {
+        Agent[] oldAgents = agents;
+        int[] oldIds = ids;
+        agents = new Agent[2 * oldAgents.length];
+        ids = new int[2 * oldIds.length];
+        for (int i = 0; i < oldAgents.length; i++) {
+            if (oldAgents[i] != null) {
+                int j = find(oldIds[i]);
+                agents[j] = oldAgents[i];
+                ids[j] = oldIds[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import java.util.Arrays;
+
+/**
+ * Packed storage for the dynamic attributes of all the agents
+ * in a world: one array per attribute, indexed by slot.
+ * Slots are dense and follow the order of the world's agent list,
+ * so loops over every agent's location read contiguous memory
+ * instead of following a pointer to each agent's attribute record.
+ *
+ * An agent that lives in a store keeps its location, heading and
+ * speed only here: its accessors read and write its slot, and its
+ * DynamicAgentAttributes record is brought up to date again when
+ * the agent leaves the store.
+ *
+ * @version 1.0
+ */
+public class AgentStore {
+
+    /** Horizontal coordinate of each slot's agent */
+    double[] locX;
+    /** Vertical coordinate of each slot's agent */
+    double[] locY;
+    /** Direction each slot's agent is facing */
+    double[] heading;
+    /** Forward velocity of each slot's agent */
+    double[] forwardV;
+    /** The agent in each slot */
+    private Agent[] agents;
+    /** Number of slots in use */
+    private int size;
+
+    /**
+     * Constructor for an empty store
+     */
+    public AgentStore() {
+        int capacity = 16;
+        locX = new double[capacity];
+        locY = new double[capacity];
+        heading = new double[capacity];
+        forwardV = new double[capacity];
+        agents = new Agent[capacity];
+        size = 0;
+    }
+
+    /**
+     * @return number of agents in the store
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param slot index of an occupied slot
+     * @return the agent in that slot
+     */
+    public Agent get(int slot) {
+        return agents[slot];
+    }
+
+    /**
+     * Put an agent in the next free slot and bind it to the store,
+     * copying in its current dynamic attributes.
+     *
+     * @param a agent to add
+     */
+    public void add(Agent a) {
+        if (size == agents.length) {
+            int capacity = 2 * size;
+            locX = Arrays.copyOf(locX, capacity);
+            locY = Arrays.copyOf(locY, capacity);
+            heading = Arrays.copyOf(heading, capacity);
+            forwardV = Arrays.copyOf(forwardV, capacity);
+            agents = Arrays.copyOf(agents, capacity);
+        }
+        agents[size] = a;
+        a.bind(this, size);
+        size++;
+    }
+
+    /**
+     * Take an agent out of the store, sliding later agents down
+     * a slot so the store stays dense and in order.
+     *
+     * @param a agent to remove; ignored if not in this store
+     */
+    public void remove(Agent a) {
+        if (a.store != this)
+            return;
+        int slot = a.slot;
+        a.unbind();
+        size--;
+        System.arraycopy(locX, slot + 1, locX, slot, size - slot);
+        System.arraycopy(locY, slot + 1, locY, slot, size - slot);
+        System.arraycopy(heading, slot + 1, heading, slot, size - slot);
+        System.arraycopy(forwardV, slot + 1, forwardV, slot, size - slot);
+        System.arraycopy(agents, slot + 1, agents, slot, size - slot);
+        agents[size] = null;
+        for (int i = slot; i < size; i++) {
+            agents[i].slot = i;
+        }
+    }
+
+    /**
+     * Take all the agents that have died out of the store,
+     * keeping the survivors in order.
+     */
+    public void removeDead() {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            Agent a = agents[i];
+            if (a.isAlive()) {
+                if (kept != i) {
+                    locX[kept] = locX[i];
+                    locY[kept] = locY[i];
+                    heading[kept] = heading[i];
+                    forwardV[kept] = forwardV[i];
+                    agents[kept] = a;
+                    a.slot = kept;
+                }
+                kept++;
+            } else {
+                a.unbind();
+            }
+        }
+        Arrays.fill(agents, kept, size, null);
+        size = kept;
+    }
+}
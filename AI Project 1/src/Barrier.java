@@ -0,0 +1,319 @@
+import java.awt.Color;
+import java.awt.Graphics;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+/**
+ * An obstacle made of straight line segments: a wall from
+ * one point to another, a chain of walls, or, if closed,
+ * a polygon.  A whole barrier is a single agent, so a long
+ * wall costs one percept, one collision test and one log
+ * line, rather than one for each rock it would take to build.
+ *
+ * The corners are given in the points attribute as a list of
+ * x,y pairs separated by spaces, measured from the barrier's
+ * location, so moving the barrier moves the whole thing.
+ * Other agents see the part of the barrier nearest to them,
+ * and are stopped where their path crosses any of its segments.
+ * Each segment should span less than half the world in each
+ * direction, so that there is no doubt which copy of it on the
+ * torus is nearest; the barrier as a whole may be bigger, since
+ * each segment is looked at on its own copy.
+ *
+ * @version 1.0
+ */
+public class Barrier extends Obstacle {
+
+    /**
+     * Class information
+     */
+
+    /** XML element tag */
+    static final String XML_NAME = "barrier";
+
+    /** Attribute listing the corners as x,y pairs relative to the location */
+    static final String POINTS_PARAM = "points";
+
+    /** Boolean attribute says whether the last corner joins up with the first */
+    static final String CLOSED_PARAM = "closed";
+
+    /** Record that allows XML files to set barrier defaults */
+    static FixedAgentAttributes defaultFixedAgentAttributes =
+        new Agent.FixedAgentAttributes(6, 0, 0, 0, 0, 0, 0, HALF_CIRCLE, Color.BLACK, false, false);
+
+    /** Record that allows XML files to set barrier defaults */
+    static DynamicAgentAttributes defaultDynamicAgentAttributes =
+        new Agent.DynamicAgentAttributes(250, 250, 0, 0);
+
+    /** Horizontal offset of each corner from the location */
+    private final double[] cornerX;
+    /** Vertical offset of each corner from the location */
+    private final double[] cornerY;
+    /** True if the last corner joins up with the first */
+    private final boolean closed;
+    /** Biggest horizontal offset of any corner */
+    private final double halfWidth;
+    /** Biggest vertical offset of any corner */
+    private final double halfHeight;
+
+    /**
+     * Constructor: initialize general agent fields to describe
+     * a barrier that does not move, and read its corners.
+     *
+     * @param w world to which agent belongs
+     * @param id number to identify agent in its world
+     * @param atts SAX attributes corresponding to XML agent spec
+     * @param loc file information for error messages
+     * @throws SAXException if data is formatted incorrectly
+     */
+    public Barrier(World w, int id, Attributes atts, Locator loc)
+    throws SAXException {
+        myWorld = w;
+        this.id = id;
+        form = new FixedAgentAttributes(atts, defaultFixedAgentAttributes, loc);
+        status = new DynamicAgentAttributes(atts, defaultDynamicAgentAttributes, loc);
+        closed = FlockingReader.getBoolParam(atts, CLOSED_PARAM, false, loc);
+
+        String points = FlockingReader.getStringParam(atts, POINTS_PARAM, "", loc).trim();
+        String[] pairs = points.length() == 0 ? new String[0] : points.split("\\s+");
+        if (pairs.length < 2)
+            throw new SAXException(FlockingReader.locationMsg(loc) +
+                    "Barrier needs at least two points, not " + points);
+        cornerX = new double[pairs.length];
+        cornerY = new double[pairs.length];
+        double hw = 0;
+        double hh = 0;
+        for (int i = 0; i < pairs.length; i++) {
+            String[] xy = pairs[i].split(",");
+            try {
+                if (xy.length != 2)
+                    throw new NumberFormatException();
+                cornerX[i] = Double.parseDouble(xy[0]);
+                cornerY[i] = Double.parseDouble(xy[1]);
+            } catch (NumberFormatException e) {
+                throw new SAXException(FlockingReader.locationMsg(loc) +
+                        "Bad point format of " + pairs[i] + " for " + POINTS_PARAM);
+            }
+            hw = Math.max(hw, Math.abs(cornerX[i]));
+            hh = Math.max(hh, Math.abs(cornerY[i]));
+        }
+        for (int i = 0; i < segments(); i++) {
+            int j = (i + 1) % cornerX.length;
+            if (2 * Math.abs(cornerX[j] - cornerX[i]) >= w.getWidth() ||
+                    2 * Math.abs(cornerY[j] - cornerY[i]) >= w.getHeight())
+                throw new SAXException(FlockingReader.locationMsg(loc) +
+                        "Barrier segment from " + pairs[i] + " to " + pairs[j] +
+                        " spans half the world or more");
+        }
+        halfWidth = hw;
+        halfHeight = hh;
+    }
+
+    /**
+     * @return number of segments making up the barrier
+     */
+    private int segments() {
+        return closed ? cornerX.length : cornerX.length - 1;
+    }
+
+    /**
+     * Output an XML element describing the current state of
+     * this barrier.
+     *
+     * @param out log text being built up
+     */
+    @Override
+    public void log(LogEncoder out) {
+        out.write("   <" + XML_NAME + " ").attribute(ID_PARAM, id)
+           .write(POINTS_PARAM + OPEN);
+        for (int i = 0; i < cornerX.length; i++) {
+            if (i > 0)
+                out.write(' ');
+            out.number(cornerX[i]).write(',').number(cornerY[i]);
+        }
+        out.write(CLOSE).attribute(CLOSED_PARAM, closed).write("\n     ");
+        form.log(out);
+        out.write("    ");
+        logStatus(out);
+        out.write("    />\n");
+    }
+
+    /**
+     * Draw the barrier as a chain of lines
+     *
+     * @param g object to control drawing mechanism
+     * @param x horizontal coordinate of the barrier
+     * @param y vertical coordinate of the barrier
+     * @param heading unused: a barrier has no direction
+     * @param color color to draw in
+     */
+    @Override
+    public void draw(Graphics g, double x, double y, double heading, Color color) {
+        g.setColor(color);
+        for (int i = 0; i < segments(); i++) {
+            int j = (i + 1) % cornerX.length;
+            myWorld.drawLine((int) Math.round(x + cornerX[i]),
+                    (int) Math.round(y + cornerY[i]),
+                    (int) Math.round(x + cornerX[j]),
+                    (int) Math.round(y + cornerY[j]), g);
+        }
+    }
+
+    /**
+     * Is the passed point within half the barrier's size
+     * of one of its segments?
+     *
+     * @param x horizontal coordinate of click
+     * @param y vertical coordinate of click
+     * @param locX horizontal coordinate of the barrier
+     * @param locY vertical coordinate of the barrier
+     * @return inside or outside
+     */
+    @Override
+    public boolean isInside(int x, int y, double locX, double locY) {
+        double[] to = new double[2];
+        nearestPart(locX - x, locY - y, to);
+        double r = (double) form.size / 2;
+        return to[0] * to[0] + to[1] * to[1] <= r * r;
+    }
+
+    /**
+     * @return biggest horizontal offset of any corner
+     */
+    @Override
+    public double getHalfWidth() {
+        return halfWidth;
+    }
+
+    /**
+     * @return biggest vertical offset of any corner
+     */
+    @Override
+    public double getHalfHeight() {
+        return halfHeight;
+    }
+
+    /**
+     * A barrier is seen where it is nearest
+     *
+     * @return true
+     */
+    @Override
+    public boolean isExtended() {
+        return true;
+    }
+
+    /**
+     * Find the nearest point on any segment to the observer.
+     * Each segment is taken on the copy whose midpoint is nearest
+     * the observer, or, close to the edge of the world, the copy
+     * just across it if that comes nearer.
+     *
+     * @param dx horizontal displacement from observer to this barrier's location
+     * @param dy vertical displacement from observer to this barrier's location
+     * @param to where to put the displacement from observer to nearest point,
+     *           horizontal then vertical
+     */
+    @Override
+    public void nearestPart(double dx, double dy, double[] to) {
+        final double w = myWorld.getWidth();
+        final double h = myWorld.getHeight();
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < segments(); i++) {
+            int j = (i + 1) % cornerX.length;
+            double ex = cornerX[j] - cornerX[i];
+            double ey = cornerY[j] - cornerY[i];
+            // midpoint of the segment from observer's point of view
+            double mx = dx + cornerX[i] + ex / 2;
+            double my = dy + cornerY[i] + ey / 2;
+            mx -= Math.rint(mx / w) * w;
+            my -= Math.rint(my / h) * h;
+            double x0 = mx - ex / 2;
+            double y0 = my - ey / 2;
+            best = nearestOnSegment(x0, y0, ex, ey, best, to);
+
+            // least distance the copy across each edge could be
+            double gx = Math.max(0, w - Math.abs(mx) - Math.abs(ex) / 2);
+            double gy = Math.max(0, h - Math.abs(my) - Math.abs(ey) / 2);
+            double sx = mx > 0 ? -w : w;
+            double sy = my > 0 ? -h : h;
+            if (gx * gx < best)
+                best = nearestOnSegment(x0 + sx, y0, ex, ey, best, to);
+            if (gy * gy < best)
+                best = nearestOnSegment(x0, y0 + sy, ex, ey, best, to);
+            if (gx * gx + gy * gy < best)
+                best = nearestOnSegment(x0 + sx, y0 + sy, ex, ey, best, to);
+        }
+    }
+
+    /**
+     * Find the nearest point to the observer on one segment,
+     * and keep it if it beats the best so far
+     *
+     * @param x0 horizontal displacement from observer to start of segment
+     * @param y0 vertical displacement from observer to start of segment
+     * @param ex horizontal extent of segment
+     * @param ey vertical extent of segment
+     * @param best squared distance to the nearest point so far
+     * @param to nearest point so far, replaced if this one is nearer
+     * @return squared distance to the nearest point now
+     */
+    private static double nearestOnSegment(double x0, double y0, double ex, double ey,
+            double best, double[] to) {
+        double len = ex * ex + ey * ey;
+        double t = len == 0 ? 0 : -(x0 * ex + y0 * ey) / len;
+        t = Math.max(0, Math.min(1, t));
+        double px = x0 + t * ex;
+        double py = y0 + t * ey;
+        double d = px * px + py * py;
+        if (d < best) {
+            to[0] = px;
+            to[1] = py;
+            return d;
+        }
+        return best;
+    }
+
+    /**
+     * Find where the path first crosses any segment.
+     * A path covers less than half the world in a step, so
+     * it can only cross the copy of a segment whose midpoint
+     * is nearest its start; that is the copy tested.
+     *
+     * @param ax0 horizontal coordinate of start of path
+     * @param ay0 vertical coordinate of start of path
+     * @param ax1 horizontal coordinate of end of path
+     * @param ay1 vertical coordinate of end of path
+     * @param shiftX horizontal shift to the copy of this barrier to test
+     * @param shiftY vertical shift to the copy of this barrier to test
+     * @return fraction of the path travelled before the collision,
+     *         or World.NO_COLLISION
+     */
+    @Override
+    public double detectCollision(double ax0, double ay0, double ax1, double ay1,
+            double shiftX, double shiftY) {
+        final double w = myWorld.getWidth();
+        final double h = myWorld.getHeight();
+        double x = getLocX() + shiftX;
+        double y = getLocY() + shiftY;
+        double first = World.NO_COLLISION;
+        for (int i = 0; i < segments(); i++) {
+            int j = (i + 1) % cornerX.length;
+            // shift by whole laps of the torus to the copy of this segment nearest the start
+            double lapsX = Math.rint((ax0 - x - (cornerX[i] + cornerX[j]) / 2) / w) * w;
+            double lapsY = Math.rint((ay0 - y - (cornerY[i] + cornerY[j]) / 2) / h) * h;
+            double x2 = x + lapsX + cornerX[i];
+            double y2 = y + lapsY + cornerY[i];
+            double x3 = x + lapsX + cornerX[j];
+            double y3 = y + lapsY + cornerY[j];
+            if (World.isLineIntersectingLine(ax0, ay0, ax1, ay1, x2, y2, x3, y3)) {
+                double c = World.getIntersection(ax0, ay0, ax1, ay1, x2, y2, x3, y3);
+                if (c < first)
+                    first = c;
+            }
+        }
+        return first;
+    }
+}
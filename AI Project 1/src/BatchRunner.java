@@ -0,0 +1,112 @@
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * BatchRunner runs a test scenario without a window:
+ * it reads an XML specification of a world, runs a fixed
+ * number of simulation steps as fast as it can, and reports
+ * how many steps per second it managed.  Any log file named
+ * in the specification is written just as Simulation would.
+ *
+ * Suitable for machines without a display; the AWT is put
+ * in headless mode before anything else is set up.
+ *
+ * @version 1.0
+ */
+public class BatchRunner {
+
+    /**
+     * Holds the world that this object will be simulating.
+     * @see World
+     */
+    private World w = null;
+
+    /**
+     * Shutdown hook that makes sure that any log file
+     * being created remains valid XML, as in Simulation.
+     */
+    class Cleanup extends Thread {
+        public void run() {
+            if (w != null && w.isRunnable()) {
+                w.finishLogging();
+            }
+        }
+    }
+
+    /**
+     * Command-line interface to batch runner.
+     *
+     * @param args array of strings specified on the
+     *             command line; should specify a
+     *             single XML specification of a world
+     *             and the number of steps to run
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        if (args.length != 2) {
+            System.err.println("Usage error: run as <program> <specfile> <steps>.");
+            return;
+        }
+        int steps;
+        try {
+            steps = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+            System.err.println("Usage error: number of steps must be an integer, not " + args[1]);
+            return;
+        }
+
+        BatchRunner b = new BatchRunner();
+        Runtime.getRuntime().addShutdownHook(b.new Cleanup());
+
+        try {
+            // Set up SAX reader, with no window to show the world in
+            SAXParserFactory spf = SAXParserFactory.newInstance();
+            spf.setNamespaceAware(true);
+            XMLReader xr = spf.newSAXParser().getXMLReader();
+            FlockingReader handler = new FlockingReader(null);
+            xr.setContentHandler(handler);
+            xr.setErrorHandler(handler);
+
+            // Parse the XML
+            FileReader r = new FileReader(args[0]);
+            xr.parse(new InputSource(r));
+
+            b.w = handler.getWorld();
+            if (b.w == null || !b.w.isRunnable()) {
+                System.err.println(args[0] + " does not describe a world to simulate");
+                return;
+            }
+            b.w.setAutoRepaint(false);
+            b.w.startLogging();
+
+            // Run the simulation flat out
+            long start = System.nanoTime();
+            for (int i = 0; i < steps; i++) {
+                b.w.stepWorld();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            b.w.finishLogging();
+            double seconds = elapsed / 1e9;
+            System.out.println(steps + " steps in " + seconds + " s: " +
+                    (steps / seconds) + " steps/s");
+
+        } catch (SAXException e) {
+            System.err.println(e.getMessage());
+        } catch (FileNotFoundException e) {
+            System.err.println(e.getMessage());
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        } catch (ParserConfigurationException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+}
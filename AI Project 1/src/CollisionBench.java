@@ -0,0 +1,289 @@
+import java.util.Random;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * CollisionBench compares World.detectCollision with the
+ * collision test it replaced, which tried four copies of the
+ * obstacle's box on the torus and tested each edge as a line
+ * segment, boxing every answer in a Double.
+ *
+ * Both tests are run over the same random short paths, each
+ * starting near a box of the usual rock size somewhere in the
+ * world.  The report says how many paths each test stops, how
+ * the answers differ, and how long each test takes per path.
+ *
+ * Runs without a window; the AWT is put in headless mode
+ * before anything else is set up.
+ *
+ * @version 1.0
+ */
+public class CollisionBench {
+
+    /** Number of paths to test */
+    static final int PATHS = 2000000;
+
+    /** Horizontal extent of the world */
+    static final int WIDTH = 800;
+
+    /** Vertical extent of the world */
+    static final int HEIGHT = 600;
+
+    /** Side of each box, in pixels */
+    static final int SIZE = 15;
+
+    /** Farthest a path starts from the middle of its box, in pixels */
+    static final double REACH = 20;
+
+    /** Longest path, in pixels */
+    static final double STEP = 5;
+
+    /** Number of timed runs of each test; the fastest is reported */
+    static final int ROUNDS = 5;
+
+    /** Horizontal coordinate of the start of each path */
+    private final double[] ax0 = new double[PATHS];
+    /** Vertical coordinate of the start of each path */
+    private final double[] ay0 = new double[PATHS];
+    /** Horizontal coordinate of the end of each path, not wrapped */
+    private final double[] ax1 = new double[PATHS];
+    /** Vertical coordinate of the end of each path, not wrapped */
+    private final double[] ay1 = new double[PATHS];
+    /** Horizontal coordinate of the middle of each box */
+    private final double[] bx = new double[PATHS];
+    /** Vertical coordinate of the middle of each box */
+    private final double[] by = new double[PATHS];
+
+    /** Agent moved to the start of each path in turn */
+    private final Agent mover;
+    /** Agent moved to each box in turn */
+    private final Agent box;
+
+    /** Keeps the timed loops from being optimized away */
+    private double sink = 0;
+
+    /**
+     * Constructor: lay out the paths
+     *
+     * @param seed seed for the random paths
+     * @throws SAXException never, for the agents made here
+     */
+    CollisionBench(long seed) throws SAXException {
+        World w = new World(WIDTH, HEIGHT, null, false, 0, false);
+        AttributesImpl atts = new AttributesImpl();
+        atts.addAttribute("", Agent.FixedAgentAttributes.SIZE_PARAM,
+                Agent.FixedAgentAttributes.SIZE_PARAM, "CDATA", Integer.toString(SIZE));
+        mover = new Obstacle(w, 0, atts, null);
+        box = new Obstacle(w, 1, atts, null);
+
+        Random r = new Random(seed);
+        for (int i = 0; i < PATHS; i++) {
+            bx[i] = r.nextDouble() * WIDTH;
+            by[i] = r.nextDouble() * HEIGHT;
+            ax0[i] = World.clampToCircle(bx[i] + (2 * r.nextDouble() - 1) * REACH, WIDTH);
+            ay0[i] = World.clampToCircle(by[i] + (2 * r.nextDouble() - 1) * REACH, HEIGHT);
+            double heading = r.nextDouble() * 2 * Math.PI;
+            double length = r.nextDouble() * STEP;
+            ax1[i] = ax0[i] + length * Math.cos(heading);
+            ay1[i] = ay0[i] + length * Math.sin(heading);
+        }
+    }
+
+    /**
+     * Put the mover and the box where path i needs them
+     */
+    private void place(int i) {
+        mover.setLocX(ax0[i]);
+        mover.setLocY(ay0[i]);
+        box.setLocX(bx[i]);
+        box.setLocY(by[i]);
+    }
+
+    /**
+     * Time one run of the old test over every path
+     *
+     * @return nanoseconds per path
+     */
+    private double timeOld() {
+        long start = System.nanoTime();
+        for (int i = 0; i < PATHS; i++) {
+            place(i);
+            Double c = oldCollision(mover, ax1[i], ay1[i], WIDTH, HEIGHT, box);
+            if (c != null)
+                sink += c.doubleValue();
+        }
+        return (double) (System.nanoTime() - start) / PATHS;
+    }
+
+    /**
+     * Time one run of World.detectCollision over every path
+     *
+     * @return nanoseconds per path
+     */
+    private double timeNew() {
+        long start = System.nanoTime();
+        for (int i = 0; i < PATHS; i++) {
+            place(i);
+            double c = World.detectCollision(mover, ax1[i], ay1[i], WIDTH, HEIGHT, box);
+            if (c != World.NO_COLLISION)
+                sink += c;
+        }
+        return (double) (System.nanoTime() - start) / PATHS;
+    }
+
+    /**
+     * Run both tests over every path, compare their answers,
+     * time them, and print a report
+     */
+    void run() {
+        int oldHits = 0;
+        int newHits = 0;
+        int same = 0;
+        int moved = 0;
+        int oldOnly = 0;
+        int newOnly = 0;
+        int pastEdge = 0;
+        for (int i = 0; i < PATHS; i++) {
+            place(i);
+            Double o = oldCollision(mover, ax1[i], ay1[i], WIDTH, HEIGHT, box);
+            double n = World.detectCollision(mover, ax1[i], ay1[i], WIDTH, HEIGHT, box);
+            boolean newHit = n != World.NO_COLLISION;
+            if (o != null)
+                oldHits++;
+            if (newHit)
+                newHits++;
+            if (o != null && newHit) {
+                if (o.doubleValue() == n)
+                    same++;
+                else
+                    moved++;
+            } else if (o != null) {
+                oldOnly++;
+            } else if (newHit) {
+                newOnly++;
+                // the old test never tried a copy a lap right or down
+                if (Math.rint((ax0[i] - bx[i]) / WIDTH) > 0 || Math.rint((ay0[i] - by[i]) / HEIGHT) > 0)
+                    pastEdge++;
+            }
+        }
+
+        double bestOld = Double.POSITIVE_INFINITY;
+        double bestNew = Double.POSITIVE_INFINITY;
+        for (int k = 0; k < ROUNDS; k++) {
+            bestOld = Math.min(bestOld, timeOld());
+            bestNew = Math.min(bestNew, timeNew());
+        }
+
+        System.out.println(PATHS + " paths of up to " + STEP + " px, starting within " +
+                REACH + " px of a " + SIZE + " px box, in a " + WIDTH + "x" + HEIGHT + " world");
+        System.out.println("old test: " + oldHits + " hits, " + bestOld + " ns/op");
+        System.out.println("new test: " + newHits + " hits, " + bestNew + " ns/op");
+        System.out.println("hit by both at the same fraction: " + same);
+        System.out.println("hit by both at different fractions: " + moved);
+        System.out.println("hit by old test only: " + oldOnly);
+        System.out.println("hit by new test only: " + newOnly +
+                " (" + pastEdge + " on a copy a lap right or down)");
+        if (sink == 0)
+            System.out.println();
+    }
+
+    /**
+     * The collision test as it was before the slab kernel,
+     * trying four ways the box of b could wrap around.
+     *
+     * @return fraction of the path a can travel before colliding
+     *         with b, or null if it does not collide
+     */
+    static Double oldCollision(Agent a, double ax1, double ay1, int wx, int wy, Agent b) {
+        final double ax0 = a.getLocX();
+        final double ay0 = a.getLocY();
+        final double size = (double) b.getSize() / 2;
+        final double bl = b.getLocX() - size;
+        final double bt = b.getLocY() - size;
+        final double br = b.getLocX() + size;
+        final double bb = b.getLocY() + size;
+
+        return min(min(oldOverlap(ax0, ay0, ax1, ay1, bl, bt, br, bb),
+                oldOverlap(ax0, ay0, ax1, ay1, bl - wx, bt, br - wx, bb)),
+                min(oldOverlap(ax0, ay0, ax1, ay1, bl, bt - wy, br, bb - wy),
+                        oldOverlap(ax0, ay0, ax1, ay1, bl - wx, bt - wy, br - wx, bb - wy)));
+    }
+
+    /**
+     * The overlap test as it was before the slab kernel,
+     * testing each edge of the rectangle as a line segment.
+     *
+     * @return fraction of the path travelled before hitting an edge,
+     *         or null if the path crosses no edge
+     */
+    static Double oldOverlap(double ax0, double ay0, double ax1, double ay1,
+            double bl, double bt, double br, double bb) {
+        Double closest = null;
+
+        // left
+        if (World.isLineIntersectingLine(ax0, ay0, ax1, ay1, bl, bt, bl, bb)) {
+            closest = min(closest, World.getIntersection(ax0, ay0, ax1, ay1, bl, bt, bl, bb));
+        }
+        // right
+        if (World.isLineIntersectingLine(ax0, ay0, ax1, ay1, br, bt, br, bb)) {
+            closest = min(closest, World.getIntersection(ax0, ay0, ax1, ay1, br, bt, br, bb));
+        }
+        // bottom
+        if (World.isLineIntersectingLine(ax0, ay0, ax1, ay1, bl, bb, br, bb)) {
+            closest = min(closest, World.getIntersection(ax0, ay0, ax1, ay1, bl, bb, br, bb));
+        }
+        // top
+        if (World.isLineIntersectingLine(ax0, ay0, ax1, ay1, bl, bt, br, bt)) {
+            closest = min(closest, World.getIntersection(ax0, ay0, ax1, ay1, bl, bt, br, bt));
+        }
+
+        return closest;
+    }
+
+    /**
+     * Smaller of two Doubles that might be null, as the old test used
+     *
+     * @return Double object with smallest value from d1 and d2
+     *         or null if both d1 and d2 are null
+     */
+    static Double min(Double d1, Double d2) {
+        if (d1 == null)
+            return d2;
+        if (d2 == null)
+            return d1;
+        if (d1.doubleValue() <= d2.doubleValue())
+            return d1;
+        else
+            return d2;
+    }
+
+    /**
+     * Command-line interface to the comparison.
+     *
+     * @param args optionally, a seed for the random paths
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        long seed = 1;
+        if (args.length > 1) {
+            System.err.println("Usage error: run as <program> [<seed>].");
+            return;
+        }
+        if (args.length == 1) {
+            try {
+                seed = Long.parseLong(args[0]);
+            } catch (NumberFormatException e) {
+                System.err.println("Usage error: seed must be an integer, not " + args[0]);
+                return;
+            }
+        }
+
+        try {
+            new CollisionBench(seed).run();
+        } catch (SAXException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+}
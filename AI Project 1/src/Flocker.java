@@ -1,7 +1,5 @@
 import java.awt.Color;
 import java.awt.Graphics;
-import java.io.BufferedWriter;
-import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -42,6 +40,9 @@ public class Flocker extends Follower {
         /** XML attribute for setting food following */
         static final String FOLLOWS_LIGHT_PARAM = "follow";
 
+        /** XML attribute for finding a way around obstacles to lights */
+        static final String ROUTES_PARAM = "route";
+
         /** XML attribute for distance at which obstacles are a worry */
         static final String CLEARANCE_DISTANCE_PARAM = "clearance";
         
@@ -101,6 +102,8 @@ public class Flocker extends Follower {
         boolean followsLight;
         /** How important is following light compared to other goals? */
         double followWeight;
+        /** Does the bird find its way around obstacles to the light? */
+        boolean routes;
         
        
         /**
@@ -111,6 +114,7 @@ public class Flocker extends Follower {
          * @param align true if boid should align heading with neighbors
          * @param center true if boid should stay in midst of neighbors
          * @param follow true if boid should follow lights
+         * @param route true if boid should find its way around obstacles to lights
          * @param clearance distance threshold for obstacles
          * @param cone angle threshold for obstacles
          * @param separation distance threshold for evasive action
@@ -122,7 +126,7 @@ public class Flocker extends Follower {
          * @param fw strength of light drive
          */
         FlockerAttributes(boolean obstacles, boolean collide, 
-        		boolean align, boolean center, boolean follow,
+        		boolean align, boolean center, boolean follow, boolean route,
                 double clearance, double cone,
                 double separation, double detection,
                 double ow, double sw, double aw, double cw, double fw) {
@@ -131,6 +135,7 @@ public class Flocker extends Follower {
             alignsWithNeighbors = align;
             doesCentering = center;
             followsLight = follow;
+            routes = route;
             this.clearance = clearance;
             this.cone = cone;
             separationDistance = separation;
@@ -157,6 +162,7 @@ public class Flocker extends Follower {
             alignsWithNeighbors = FlockingReader.getBoolParam(atts, ALIGNS_WITH_NEIGHBORS_PARAM, defaults.alignsWithNeighbors, locator);
             doesCentering = FlockingReader.getBoolParam(atts, DOES_CENTERING_PARAM, defaults.doesCentering, locator);
             followsLight = FlockingReader.getBoolParam(atts, FOLLOWS_LIGHT_PARAM, defaults.followsLight, locator);
+            routes = FlockingReader.getBoolParam(atts, ROUTES_PARAM, defaults.routes, locator);
             clearance = FlockingReader.getDoubleParam(atts, CLEARANCE_DISTANCE_PARAM, defaults.clearance, locator);
             double degrees  = FlockingReader.getDoubleParam(atts, CLEARANCE_ANGLE_PARAM, defaults.cone * RADIANS_TO_DEGREES, locator);
           	cone = World.clampToCircle(degrees * DEGREES_TO_RADIANS, 2 * Math.PI);
@@ -186,28 +192,27 @@ public class Flocker extends Follower {
          * (in its current state) on the file corresponding to out
          * 
          * @param out where data should be written
-         * @throws IOException if writes fail
          */
-        public void log(BufferedWriter out)
-        throws IOException {
+        public void log(LogEncoder out) {
         	double degrees = RADIANS_TO_DEGREES * cone;
         	
-            out.write(
-                    AVOIDS_OBSTACLES_PARAM + OPEN + Boolean.toString(avoidsObstacles) + CLOSE +
-                    AVOIDS_COLLISIONS_PARAM + OPEN + Boolean.toString(avoidsCollisions) + CLOSE +
-                    ALIGNS_WITH_NEIGHBORS_PARAM + OPEN + Boolean.toString(alignsWithNeighbors) + CLOSE +
-                    DOES_CENTERING_PARAM + OPEN + Boolean.toString(doesCentering) + CLOSE +
-                    FOLLOWS_LIGHT_PARAM + OPEN + Boolean.toString(followsLight) + CLOSE +
-                    CLEARANCE_DISTANCE_PARAM + OPEN + Double.toString(clearance) + CLOSE +
-                    CLEARANCE_ANGLE_PARAM + OPEN + Double.toString(degrees) + CLOSE +
-                    SEPARATION_DISTANCE_PARAM + OPEN + Double.toString(separationDistance) + CLOSE +
-                    DETECTION_DISTANCE_PARAM + OPEN + Double.toString(detectionDistance) + CLOSE +
-                    OBSTACLE_WEIGHT_PARAM + OPEN + Double.toString(obstacleWeight) + CLOSE +
-                    SEP_WEIGHT_PARAM + OPEN + Double.toString(separationWeight) + CLOSE +
-                    ALIGN_WEIGHT_PARAM + OPEN + Double.toString(alignmentWeight) + CLOSE +
-                    CTR_WEIGHT_PARAM + OPEN + Double.toString(centeringWeight) + CLOSE +
-                    LIGHT_WEIGHT_PARAM + OPEN + Double.toString(followWeight) + CLOSE +
-                    "\n");
+            out.attribute(AVOIDS_OBSTACLES_PARAM, avoidsObstacles)
+               .attribute(AVOIDS_COLLISIONS_PARAM, avoidsCollisions)
+               .attribute(ALIGNS_WITH_NEIGHBORS_PARAM, alignsWithNeighbors)
+               .attribute(DOES_CENTERING_PARAM, doesCentering)
+               .attribute(FOLLOWS_LIGHT_PARAM, followsLight);
+            if (routes)
+                out.attribute(ROUTES_PARAM, routes);
+            out.attribute(CLEARANCE_DISTANCE_PARAM, clearance)
+               .attribute(CLEARANCE_ANGLE_PARAM, degrees)
+               .attribute(SEPARATION_DISTANCE_PARAM, separationDistance)
+               .attribute(DETECTION_DISTANCE_PARAM, detectionDistance)
+               .attribute(OBSTACLE_WEIGHT_PARAM, obstacleWeight)
+               .attribute(SEP_WEIGHT_PARAM, separationWeight)
+               .attribute(ALIGN_WEIGHT_PARAM, alignmentWeight)
+               .attribute(CTR_WEIGHT_PARAM, centeringWeight)
+               .attribute(LIGHT_WEIGHT_PARAM, followWeight)
+               .write("\n");
 
         }
 
@@ -240,6 +245,9 @@ public class Flocker extends Follower {
     /** Should a flocker follow lights? */
     static boolean FOLLOWS_LIGHT = true;
 
+    /** Should a flocker find its way around obstacles to lights? */
+    static final boolean ROUTES_TO_LIGHT = false;
+
     /** By default, how close can individuals in the flock get before they get antsy */
     static final int DEFAULT_SEPARATION_DISTANCE = 50;
 
@@ -271,7 +279,7 @@ public class Flocker extends Follower {
     static FlockerAttributes defaultFlockerAttributes =
         new FlockerAttributes(AVOIDS_OBSTACLES,
         		AVOIDS_COLLISIONS, ALIGNS_WITH_NEIGHBORS,
-                DOES_CENTERING, FOLLOWS_LIGHT,
+                DOES_CENTERING, FOLLOWS_LIGHT, ROUTES_TO_LIGHT,
                 DEFAULT_CLEARANCE_DISTANCE,
                 DEFAULT_CLEARANCE_ANGLE,
                 DEFAULT_SEPARATION_DISTANCE,
@@ -384,6 +392,9 @@ public class Flocker extends Follower {
     /** Decision making parameters for this boid's flocking behavior */
     FlockerAttributes flocking;
 
+    /** Percepts that can affect this boid's decisions */
+    private final PerceptFilter interests = new PerceptFilter();
+
     /**
      * Constructor: initialize general agent fields to describe
      * a flocking agent.
@@ -406,15 +417,14 @@ public class Flocker extends Follower {
      * Output an XML element describing the current state of
      * this boid.
      * 
-     * @param out an open file to write to, wrapped in BufferedWriter 
-     *            convenience class
+     * @param out log text being built up
      */
     @Override
-    public void log(BufferedWriter out) throws IOException {
-        out.write("   <" + XML_NAME + " " + ID_PARAM + OPEN + Integer.toString(id) + CLOSE + "\n     ");
+    public void log(LogEncoder out) {
+        out.write("   <" + XML_NAME + " ").attribute(ID_PARAM, id).write("\n     ");
         form.log(out);
         out.write("     ");
-        status.log(out);
+        logStatus(out);
         out.write("     ");
         flocking.log(out);
         out.write("    />\n");
@@ -548,8 +558,14 @@ public class Flocker extends Follower {
     		}
     	}
 
+    	//lights were left out of the percepts if the world knows the nearest
+    	if (flocking.followsLight && myWorld.knowsLights(this)) {
+    		clossestLight = myWorld.nearestLight(this, null);
+    	}
+
     	//add force for nearest light
     	if(clossestLight != null && flocking.followsLight) {
+    		clossestLight = routeTo(clossestLight);
 	    	WeightedForce lightforce = new WeightedForce(flocking.followWeight,clossestLight.getAngle());
 			force.addIn(lightforce);
     	}
@@ -559,16 +575,51 @@ public class Flocker extends Follower {
     	return point;
     }
     
+    /**
+     * A boid finds its way around obstacles to lights if told to
+     * 
+     * @return true if the route attribute is set
+     */
+    @Override
+    protected boolean navigates() {
+        return flocking.routes;
+    }
+
     /**
      * Specialized drawing method in case you want debugging help
      */
     @Override
-    public void draw(Graphics g) {
+    public void draw(Graphics g, double x, double y, double heading, Color color) {
         // TBC: Debug visualization here
     	
-        super.draw(g);
+        super.draw(g, x, y, heading, color);
     }
     
+    /**
+     * The forces on a boid come from predators and obstacles
+     * within its clearance (if it avoids them), boids within its
+     * separation or detection distance, and the closest light 
+     * (if it follows lights).  Nothing else can affect it.
+     * If the world can say which light is nearest, the boid
+     * asks it rather than looking at every light.
+     * 
+     * @return filter passing what the current parameters respond to
+     */
+    @Override
+    public PerceptFilter interests() {
+        interests.clear();
+        if (flocking.avoidsObstacles) {
+            interests.want(Percept.ObjectCategory.PREDATOR, flocking.clearance);
+            interests.want(Percept.ObjectCategory.OBSTACLE, flocking.clearance);
+        }
+        interests.want(Percept.ObjectCategory.BOID, 
+                Math.max(flocking.separationDistance, flocking.detectionDistance));
+        if (flocking.followsLight && !myWorld.knowsLights(this)) {
+            interests.want(Percept.ObjectCategory.LIGHT);
+        }
+        return interests;
+    }
+
     /**
      * What are you interested in?  Stub code says nothing
      *
@@ -32,6 +32,12 @@ public class FlockingReader extends DefaultHandler {
 
     /* Used to tell if we are handling defaults */
     private boolean inDefaults = false;
+
+    /* Used to tell if we are inside a state description */
+    private boolean inState = false;
+
+    /* Replay runs without pausing or drawing until this step is reached */
+    private int skipUntil = 0;
     
     /* XML element beginning defaults */
     static final String DEFAULT_ELEMENT = "defaults";
@@ -45,6 +51,16 @@ public class FlockingReader extends DefaultHandler {
         return world;
     }
 
+    /**
+     * Replay the log without pausing or drawing until the passed
+     * step is reached, so that viewing can start there
+     *
+     * @param step first step to show
+     */
+    public void setSkipUntil(int step) {
+        skipUntil = step;
+    }
+
     /**
      *  called when XML parser starts reading and gives us tabs 
      *  on the dynamic Locator object parameter
@@ -178,7 +194,8 @@ public class FlockingReader extends DefaultHandler {
     /**
      * Constructor, keeps the passed frame to build UI for world
      * 
-     * @param f window where specified world appears
+     * @param f window where specified world appears,
+     *          or null to read the world without showing it
      */
     public FlockingReader(Frame f) {
         super();
@@ -196,8 +213,14 @@ public class FlockingReader extends DefaultHandler {
     }
 
 
+    /**
+     * Draw the world as it stands once the whole document
+     * has been read, in case it is being shown
+     */
     public void endDocument ()
     {
+        if (world != null)
+            world.publishFrame();
     }
 
     /**
@@ -235,11 +258,15 @@ public class FlockingReader extends DefaultHandler {
         if (World.STATE_NAME.equals(name)) {
             int step = getIntParam(atts, World.STEP_NAME, world.getStepCount(), locator);
             world.setStepCount(step);
+            inState = true;
             return;
         }
         
         if (World.WAIT_NAME.equals(name)) {
             int duration = getIntParam(atts, World.WAIT_INTERVAL, World.DEFAULT_WAIT, locator);
+            // nobody is watching, so there is no reason to pause
+            if (frame == null || skipping())
+                return;
             try { 
                 Thread.sleep(duration);
             } catch (InterruptedException e) {
@@ -255,10 +282,20 @@ public class FlockingReader extends DefaultHandler {
             String logfile = getStringParam(atts, World.LOGFILE_PARAM, null, locator);
             boolean runnable = getBoolParam(atts, World.RUNNABLE_PARAM, true, locator);
             boolean debug = getBoolParam(atts, World.DEBUG_PARAM, false, locator);
+            double sensing = getDoubleParam(atts, World.SENSING_PARAM, World.UNLIMITED_SENSING, locator);
             world = new World(width, height, logfile, runnable, delay, debug);
-            frame.setSize(width,height);
-            frame.add(world);
-            frame.pack();
+            world.setSensingRadius(sensing);
+            world.setPacked(getBoolParam(atts, World.PACKED_PARAM, false, locator));
+            world.setRasterCellSize(getDoubleParam(atts, World.RASTER_PARAM, World.NO_RASTER, locator));
+            world.setLogEpsilon(getDoubleParam(atts, World.LOG_EPSILON_PARAM, World.LOG_EVERY_AGENT, locator));
+            world.setKeyframeInterval(getIntParam(atts, World.KEYFRAMES_PARAM, World.NO_KEYFRAMES, locator));
+            world.setThreads(getIntParam(atts, World.THREADS_PARAM, 1, locator));
+            world.setFps(getIntParam(atts, World.FPS_PARAM, World.DEFAULT_FPS, locator));
+            if (frame != null) {
+                frame.setSize(width,height);
+                frame.add(world);
+                frame.pack();
+            }
             return;
         }
         
@@ -270,10 +307,11 @@ public class FlockingReader extends DefaultHandler {
         int id = getIntParam(atts, Agent.ID_PARAM, nextId++, locator);
         Agent a = world.getAgent(id);
         if (a != null) {
-            if (Agent.UPDATE.equals(name))
-                a.update(atts, locator);    
-            else if (World.DIE_NAME.equals(name))
+            // a complete description in a state is a keyframe: bring the agent up to date
+            if (World.DIE_NAME.equals(name))
                 world.removeAgent(a);
+            else if (Agent.UPDATE.equals(name) || inState)
+                a.update(atts, locator);    
             return;
         }   
         
@@ -293,6 +331,14 @@ public class FlockingReader extends DefaultHandler {
                 Obstacle o = new Obstacle(world, id, atts, locator);
                 world.addAgent(o);
             }
+        } else if (Barrier.XML_NAME.equals(name)) {
+            if (inDefaults) {
+                Barrier.defaultFixedAgentAttributes.update(atts, locator);
+                Barrier.defaultDynamicAgentAttributes.update(atts, locator);
+            } else {
+                Barrier b = new Barrier(world, id, atts, locator);
+                world.addAgent(b);
+            }
         } else if (Runner.XML_NAME.equals(name)) {
             if (inDefaults) {
                 Runner.defaultDynamicAgentAttributes.update(atts, locator);
@@ -379,9 +425,13 @@ public class FlockingReader extends DefaultHandler {
     {
         if ((World.XMLNS.equals(uri) || "".equals (uri))) {
             if (World.STATE_NAME.equals(name)) {
-                frame.setVisible(true);
+                inState = false;
+                if (skipping())
+                    return;
+                if (frame != null)
+                    frame.setVisible(true);
                 if (world != null) {
-                    world.repaint();
+                    world.publishFrame();
                 }
             }
             else if (DEFAULT_ELEMENT.equals(name)) {
@@ -391,6 +441,13 @@ public class FlockingReader extends DefaultHandler {
     }
 
 
+    /**
+     * @return true if replay has not yet reached the first step to show
+     */
+    private boolean skipping() {
+        return world != null && world.getStepCount() < skipUntil;
+    }
+
     public void characters (char ch[], int start, int length)
     {
     }
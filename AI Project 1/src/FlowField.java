@@ -0,0 +1,325 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routes around the obstacles that never move, shared by every
+ * agent heading for the same place.  The world is cut into small
+ * cells; a cell is blocked if an agent centered there would be
+ * within a given clearance of some obstacle.  For each target the
+ * field works out, once, the length of the shortest path from
+ * every cell to the target's cell, stepping to any of the eight
+ * neighboring cells that are not blocked and wrapping around the
+ * edges of the world (Dijkstra's algorithm).  An agent then finds
+ * its way by walking downhill from its own cell.
+ *
+ * Paths are worked out lazily, the first time some agent asks
+ * about a target with a given clearance, and kept until the
+ * field is built again, which has to happen whenever obstacles
+ * come, go or move.  Asking is safe from several threads at once.
+ *
+ * @version 1.0
+ */
+public class FlowField {
+
+    /** How many paths to keep before throwing them all away */
+    static final int MAX_PATHS = 128;
+
+    /** How many steps downhill to look for a point that can be seen directly */
+    static final int LOOKAHEAD = 8;
+
+    /** Cost of a diagonal step, in cells */
+    private static final double DIAGONAL = Math.sqrt(2);
+
+    /** Cells the world is cut into */
+    private final TorusCells cells;
+
+    /** The obstacles, in list order */
+    private Agent[] obstacles = new Agent[0];
+    /** Where each obstacle was when the field was built */
+    private double[] obstacleX = new double[0];
+    /** See obstacleX */
+    private double[] obstacleY = new double[0];
+    /** Blocked cells for each clearance, in whole pixels */
+    private final Map<Integer, boolean[]> blocked = new HashMap<Integer, boolean[]>();
+    /** Path length to the target from each cell, by target cell and clearance */
+    private final Map<Long, double[]> paths = new HashMap<Long, double[]>();
+
+    /**
+     * Constructor for a field with no obstacles
+     *
+     * @param width horizontal extent of the world
+     * @param height vertical extent of the world
+     * @param cellSize smallest side length for a cell, in pixels
+     */
+    public FlowField(int width, int height, double cellSize) {
+        cells = new TorusCells(width, height, cellSize);
+    }
+
+    /**
+     * @param w horizontal extent of the world
+     * @param h vertical extent of the world
+     * @return true if the field was laid out for a world of this size
+     */
+    public boolean covers(int w, int h) {
+        return cells.covers(w, h);
+    }
+
+    /**
+     * Take note of the obstacles among the passed agents, where
+     * they stand now.  Paths worked out so far are forgotten,
+     * unless the obstacles are just as they were, as when only
+     * lights have come or gone.
+     *
+     * @param agents agents that will stay where they are, in list order
+     */
+    public synchronized void rebuild(List<Agent> agents) {
+        int count = 0;
+        for (Agent a: agents) {
+            if (a.looksLike() == Percept.ObjectCategory.OBSTACLE)
+                count++;
+        }
+        Agent[] found = new Agent[count];
+        double[] foundX = new double[count];
+        double[] foundY = new double[count];
+        int i = 0;
+        for (Agent a: agents) {
+            if (a.looksLike() == Percept.ObjectCategory.OBSTACLE) {
+                found[i] = a;
+                foundX[i] = a.getLocX();
+                foundY[i] = a.getLocY();
+                i++;
+            }
+        }
+        if (Arrays.equals(found, obstacles) && Arrays.equals(foundX, obstacleX) &&
+                Arrays.equals(foundY, obstacleY))
+            return;
+        obstacles = found;
+        obstacleX = foundX;
+        obstacleY = foundY;
+        blocked.clear();
+        paths.clear();
+    }
+
+    /**
+     * Find which way to go from (x, y) to get to (tx, ty) without
+     * running into an obstacle, for an agent that needs the given
+     * clearance.  The answer points at the farthest cell a few steps
+     * down the path that can be reached in a straight line.
+     *
+     * @param x horizontal coordinate of the agent
+     * @param y vertical coordinate of the agent
+     * @param tx horizontal coordinate of the target
+     * @param ty vertical coordinate of the target
+     * @param clearance how close the agent's center can come to an obstacle
+     * @return direction to head in, as an angle in the world,
+     *         or NaN if the agent can head straight for the target
+     *         or no path gets there
+     */
+    public double direction(double x, double y, double tx, double ty, double clearance) {
+        x = World.clampToCircle(x, cells.width);
+        y = World.clampToCircle(y, cells.height);
+        tx = World.clampToCircle(tx, cells.width);
+        ty = World.clampToCircle(ty, cells.height);
+        int reach = (int) Math.ceil(clearance);
+        boolean[] walls;
+        synchronized (this) {
+            if (obstacles.length == 0)
+                return Double.NaN;
+            walls = walls(reach);
+        }
+        if (clearLine(x, y, tx, ty, walls))
+            return Double.NaN;
+        double[] cost;
+        synchronized (this) {
+            cost = path(cells.cellAt(tx, ty), reach, walls);
+        }
+
+        int cell = cells.cellAt(x, y);
+        int aim = -1;
+        for (int k = 0; k < LOOKAHEAD; k++) {
+            int next = downhill(cell, cost, walls);
+            if (next < 0)
+                break;
+            cell = next;
+            if (k == 0 || clearLine(x, y, cells.centerX(cell), cells.centerY(cell), walls))
+                aim = cell;
+        }
+        if (aim < 0)
+            return Double.NaN;
+        return Math.atan2(World.displacementOnCircle(y, cells.centerY(aim), cells.height),
+                World.displacementOnCircle(x, cells.centerX(aim), cells.width));
+    }
+
+    /**
+     * Can a step go from cell to its neighbor (dc, dr)?
+     * A diagonal step may not cut the corner of a blocked cell.
+     */
+    private boolean open(int cell, int dc, int dr, boolean[] walls) {
+        if (walls[cells.neighbor(cell, dc, dr)])
+            return false;
+        return dc == 0 || dr == 0 ||
+            (!walls[cells.neighbor(cell, dc, 0)] && !walls[cells.neighbor(cell, 0, dr)]);
+    }
+
+    /**
+     * The neighbor of cell nearest the target, or -1 if none is
+     * nearer than cell is.  A blocked cell has no path of its own,
+     * so from there any open neighbor with a path will do, and the
+     * target can always be stepped into.
+     */
+    private int downhill(int cell, double[] cost, boolean[] walls) {
+        int best = -1;
+        double bestCost = cost[cell];
+        for (int dr = -1; dr <= 1; dr++) {
+            for (int dc = -1; dc <= 1; dc++) {
+                if (dc == 0 && dr == 0)
+                    continue;
+                int n = cells.neighbor(cell, dc, dr);
+                if (cost[n] < bestCost && (walls[cell] || cost[n] == 0 || open(cell, dc, dr, walls))) {
+                    best = n;
+                    bestCost = cost[n];
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Does the straight line from (x0, y0) to (x1, y1), the short
+     * way around the world, stay out of blocked cells?  The cells
+     * the line starts and ends in do not count, so that an agent
+     * pressed up against an obstacle can still move away from it,
+     * and a target tucked in beside one can still be reached.
+     */
+    private boolean clearLine(double x0, double y0, double x1, double y1, boolean[] walls) {
+        double dx = World.displacementOnCircle(x0, x1, cells.width);
+        double dy = World.displacementOnCircle(y0, y1, cells.height);
+        int steps = (int) Math.ceil(2 * Math.max(Math.abs(dx) / cells.cellWidth,
+                Math.abs(dy) / cells.cellHeight));
+        int start = cells.cellAt(x0, y0);
+        int end = cells.cellAt(World.clampToCircle(x1, cells.width),
+                World.clampToCircle(y1, cells.height));
+        for (int k = 1; k <= steps; k++) {
+            double t = (double) k / steps;
+            int cell = cells.cellAt(World.clampToCircle(x0 + t * dx, cells.width),
+                    World.clampToCircle(y0 + t * dy, cells.height));
+            if (cell != start && cell != end && walls[cell])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Blocked cells for agents needing reach pixels of clearance,
+     * worked out the first time they are asked for
+     */
+    private boolean[] walls(int reach) {
+        boolean[] walls = blocked.get(reach);
+        if (walls != null)
+            return walls;
+
+        walls = new boolean[cells.count()];
+        double[] to = new double[2];
+        for (Agent b: obstacles) {
+            double halfWidth = b.getHalfWidth() + reach;
+            double halfHeight = b.getHalfHeight() + reach;
+            int c0 = cells.columnOf(b.getLocX() - halfWidth);
+            int c1 = cells.lastColumn(c0, b.getLocX() + halfWidth);
+            int r0 = cells.rowOf(b.getLocY() - halfHeight);
+            int r1 = cells.lastRow(r0, b.getLocY() + halfHeight);
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    int cell = cells.cell(c, r);
+                    double dx = World.displacementOnCircle(cells.centerX(cell), b.getLocX(), cells.width);
+                    double dy = World.displacementOnCircle(cells.centerY(cell), b.getLocY(), cells.height);
+                    if (b.isExtended()) {
+                        b.nearestPart(dx, dy, to);
+                        if (to[0] * to[0] + to[1] * to[1] < (double) reach * reach)
+                            walls[cell] = true;
+                    } else if (Math.abs(dx) < halfWidth && Math.abs(dy) < halfHeight) {
+                        walls[cell] = true;
+                    }
+                }
+            }
+        }
+        blocked.put(reach, walls);
+        return walls;
+    }
+
+    /**
+     * Length of the shortest path from each cell to the target cell,
+     * in cells, or infinity where there is none; worked out the first
+     * time it is asked for.  The target cell itself is never blocked.
+     */
+    private double[] path(int target, int reach, boolean[] walls) {
+        Long key = (long) target * Integer.MAX_VALUE + reach;
+        double[] cost = paths.get(key);
+        if (cost != null)
+            return cost;
+        if (paths.size() >= MAX_PATHS)
+            paths.clear();
+
+        cost = new double[cells.count()];
+        Arrays.fill(cost, Double.POSITIVE_INFINITY);
+        cost[target] = 0;
+        // binary heap of cells, with stale entries skipped when popped
+        int[] heap = new int[16];
+        double[] keys = new double[16];
+        int size = 0;
+        heap[size] = target;
+        keys[size++] = 0;
+        while (size > 0) {
+            int cell = heap[0];
+            double d = keys[0];
+            size--;
+            int hole = 0;
+            while (true) {
+                int child = 2 * hole + 1;
+                if (child >= size)
+                    break;
+                if (child + 1 < size && keys[child + 1] < keys[child])
+                    child++;
+                if (keys[child] >= keys[size])
+                    break;
+                heap[hole] = heap[child];
+                keys[hole] = keys[child];
+                hole = child;
+            }
+            heap[hole] = heap[size];
+            keys[hole] = keys[size];
+            if (d > cost[cell])
+                continue;
+
+            for (int dr = -1; dr <= 1; dr++) {
+                for (int dc = -1; dc <= 1; dc++) {
+                    if (dc == 0 && dr == 0)
+                        continue;
+                    // the path is walked from n to cell, so test that step
+                    int n = cells.neighbor(cell, dc, dr);
+                    if (walls[n] || !open(n, -dc, -dr, walls) && !(cell == target && walls[cell]))
+                        continue;
+                    double nd = d + (dc == 0 || dr == 0 ? 1 : DIAGONAL);
+                    if (nd >= cost[n])
+                        continue;
+                    cost[n] = nd;
+                    if (size == heap.length) {
+                        heap = Arrays.copyOf(heap, 2 * size);
+                        keys = Arrays.copyOf(keys, 2 * size);
+                    }
+                    hole = size++;
+                    while (hole > 0 && keys[(hole - 1) / 2] > nd) {
+                        heap[hole] = heap[(hole - 1) / 2];
+                        keys[hole] = keys[(hole - 1) / 2];
+                        hole = (hole - 1) / 2;
+                    }
+                    heap[hole] = n;
+                    keys[hole] = nd;
+                }
+            }
+        }
+        paths.put(key, cost);
+        return cost;
+    }
+}
@@ -1,7 +1,5 @@
 import java.awt.Color;
 import java.awt.Graphics;
-import java.io.BufferedWriter;
-import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -28,6 +26,9 @@ public class Follower extends Agent {
     /** Tag for XML element */
     static final String XML_NAME = "follower";
 
+    /** XML attribute for finding a way around obstacles to lights */
+    static final String ROUTES_PARAM = "route";
+
     /** Size in display */
     static final int FOLLOWER_SIZE = 15;
     /** Can go forward up to 4 pixels per step */
@@ -61,6 +62,9 @@ public class Follower extends Agent {
      * Instance members
      */
 
+    /** Does the follower find its way around obstacles to the light? */
+    protected boolean routes;
+
     /**
      * Constructor: initialize general agent fields to describe
      * agent that will follow a light source.
@@ -77,22 +81,22 @@ public class Follower extends Agent {
         this.id = id;
         form = new FixedAgentAttributes(atts, defaultFixedAgentAttributes, loc);
         status = new DynamicAgentAttributes(atts, defaultDynamicAgentAttributes, loc);
+        routes = FlockingReader.getBoolParam(atts, ROUTES_PARAM, false, loc);
     }
 
     /**
      * Output an XML element describing the current state of
      * this follower.
      * 
-     * @param out an open file to write to, wrapped in BufferedWriter 
-     *            convenience class
+     * @param out log text being built up
      */
-    public void log(BufferedWriter out) 
-    throws IOException {
-        out.write("   <" + XML_NAME + " " + ID_PARAM + OPEN + Integer.toString(id) + CLOSE +
-        "\n     ");
+    public void log(LogEncoder out) {
+        out.write("   <" + XML_NAME + " ").attribute(ID_PARAM, id).write("\n     ");
         form.log(out);
         out.write("    ");
-        status.log(out);
+        logStatus(out);
+        if (routes)
+            out.write("     ").attribute(ROUTES_PARAM, routes).write("\n");
         out.write("    />\n");
     }
 
@@ -100,42 +104,42 @@ public class Follower extends Agent {
      * Draw a light follower as a solid triangle pointing in the direction
      * of the agent's heading.
      * @param g object to control drawing mechanism 
-     * @see Agent#draw(java.awt.Graphics)
+     * @see Agent#draw(java.awt.Graphics, double, double, double, java.awt.Color)
      */
     @Override
-    public void draw(Graphics g) {
+    public void draw(Graphics g, double x, double y, double heading, Color color) {
         int[] xpoints = new int[3];
         int[] ypoints = new int[3];
 
-        double baseAngle = status.heading + Math.PI / 2;
+        double baseAngle = heading + Math.PI / 2;
         double s = form.size;
         int baseOffsetX = (int) Math.round(2 * s * Math.cos(baseAngle) / 3);
         int baseOffsetY = (int) Math.round(2 * s * Math.sin(baseAngle) / 3);
 
-        int x0 = ((int) Math.round(status.locX - baseOffsetX / 2
-                - s * Math.cos(status.heading) / 3));
-        int y0 = ((int) Math.round(status.locY - baseOffsetY / 2
-                - s * Math.sin(status.heading) / 3));
+        int x0 = ((int) Math.round(x - baseOffsetX / 2
+                - s * Math.cos(heading) / 3));
+        int y0 = ((int) Math.round(y - baseOffsetY / 2
+                - s * Math.sin(heading) / 3));
 
         xpoints[0] = x0;
         xpoints[1] = x0 + baseOffsetX;
-        xpoints[2] = x0 + baseOffsetX / 2 + (int) Math.round(s * Math.cos(status.heading));
+        xpoints[2] = x0 + baseOffsetX / 2 + (int) Math.round(s * Math.cos(heading));
 
         ypoints[0] = y0;
         ypoints[1] = y0 + baseOffsetY;
-        ypoints[2] = y0 + baseOffsetY / 2 + (int) Math.round(s * Math.sin(status.heading));
+        ypoints[2] = y0 + baseOffsetY / 2 + (int) Math.round(s * Math.sin(heading));
 
-        g.setColor(form.color);
+        g.setColor(color);
         myWorld.fillPolygon(xpoints, ypoints, 3, g);
 
         if (form.debug) {
             double length = 
                 Math.sqrt(myWorld.getWidth() * myWorld.getWidth() +
                         myWorld.getHeight() * myWorld.getHeight()) / 2;
-            int x1 = (int) Math.round(status.locX + length * Math.cos(status.heading));
-            int y1 = (int) Math.round(status.locY + length * Math.sin(status.heading));
-            g.setColor(form.color);
-            myWorld.drawLine((int)Math.round(status.locX),(int)Math.round(status.locY),x1,y1,g);
+            int x1 = (int) Math.round(x + length * Math.cos(heading));
+            int y1 = (int) Math.round(y + length * Math.sin(heading));
+            g.setColor(color);
+            myWorld.drawLine((int)Math.round(x),(int)Math.round(y),x1,y1,g);
         }
 
     }
@@ -169,6 +173,21 @@ public class Follower extends Agent {
         return (p.getObjectCategory() == Percept.ObjectCategory.LIGHT);
     }
 
+    /** Percepts of interest to a follower that chases lights */
+    static final PerceptFilter LIGHTS = new PerceptFilter().want(Percept.ObjectCategory.LIGHT);
+
+    /**
+     * The default follower only ever chases lights, so it
+     * only needs to see lights.  Subclasses that change isTarget
+     * or bestTarget must say what they want to see as well.
+     * 
+     * @return filter passing lights only
+     */
+    @Override
+    public PerceptFilter interests() {
+        return LIGHTS;
+    }
+
     /**
      * The behavior of followers and their subclasses is parameterized
      * by this method: it takes a percept and gives a measure of
@@ -230,6 +249,34 @@ public class Follower extends Agent {
         return bestTarget(ps, m);
     }
 
+    /**
+     * Does this follower find its way around obstacles to the
+     * lights it chases, rather than heading straight for them?
+     * The default follower does if its XML spec says route="true".
+     * 
+     * @return true if lights are reached by way of routeTo
+     */
+    protected boolean navigates() {
+        return routes;
+    }
+
+    /**
+     * If this follower navigates and p is a light, describe the
+     * light as lying in the direction of the way around any
+     * obstacles that never move, so that steering towards the
+     * percept steers along the route.  The distance stays the
+     * distance to the light itself.
+     * 
+     * @param p percept describing target
+     * @return percept to steer towards
+     */
+    protected Percept routeTo(Percept p) {
+        if (p == null || !navigates() || p.getObjectCategory() != Percept.ObjectCategory.LIGHT)
+            return p;
+        return new Percept(p.getObjectCategory(), p.getColor(), p.getDistance(),
+                myWorld.routeAngle(this, p), p.getOrientation(), p.getSpeed());
+    }
+
     /**
      * Add to the follower's todo list intentions to 
      * adjust speed and angle to get towards the thing
@@ -246,10 +293,10 @@ public class Follower extends Agent {
     		double desiredAngle = p.getAngle();
 
     		todo.add(new Intention(Intention.ActionType.TURN, desiredAngle));
-    		todo.add(new Intention(Intention.ActionType.CHANGE_SPEED, desiredSpeed - status.forwardV));
+    		todo.add(new Intention(Intention.ActionType.CHANGE_SPEED, desiredSpeed - getForwardV()));
     	} else {
     		// stop
-    		todo.add(new Intention(Intention.ActionType.CHANGE_SPEED, -status.forwardV));
+    		todo.add(new Intention(Intention.ActionType.CHANGE_SPEED, -getForwardV()));
     	}
     }
 
@@ -266,7 +313,7 @@ public class Follower extends Agent {
         todo = new LinkedList<Intention>();
 
         if (closestSeen != null) {
-            steerTo(closestSeen);
+            steerTo(routeTo(closestSeen));
         }
     }
 }
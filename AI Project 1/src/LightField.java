@@ -0,0 +1,252 @@
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Precomputed answers to "which light is nearest?" over the
+ * torus world, for lights that stay put.  The world is cut into
+ * cells, and for each cell the field lists, for lights of any
+ * color and for lights of each color separately, the few lights
+ * that could be nearest to some point in the cell.  Finding the
+ * nearest light from a point then means measuring the distance
+ * to a handful of candidates, not to every light in the world.
+ *
+ * Candidates are chosen by bounding the distance from the cell
+ * to each light: a light is left out only if some other light
+ * is surely nearer to every point in the cell.  Distances to the
+ * candidates are measured exactly as World.senseAgent measures
+ * them, and ties go to the light earliest in the list, so the
+ * answer is the light an agent would have picked out of its percepts.
+ *
+ * The field has to be built again whenever lights come, go or move.
+ *
+ * @version 1.0
+ */
+public class LightField {
+
+    /** Slack in comparing distance bounds, far bigger than any rounding error */
+    static final double SLACK = 1e-6;
+
+    /** Cells the world is cut into */
+    private final TorusCells cells;
+
+    /** The lights, in list order */
+    private Agent[] lights = new Agent[0];
+    /** How many entries of lights are valid */
+    private int count = 0;
+    /** RGB value of each color of light, in order of first appearance */
+    private int[] colors = new int[0];
+    /** Index into colors of each light's color */
+    private int[] colorOf = new int[0];
+    /** True if some light lies off the world, so every light is a candidate everywhere */
+    private boolean exhaustive;
+    /**
+     * Candidates for group g (0 for any color, k+1 for colors[k])
+     * in cell c are candidates[g][start[g][c]] to candidates[g][start[g][c+1]-1],
+     * by position in lights, in increasing order
+     */
+    private int[][] start = new int[0][];
+    /** See start */
+    private int[][] candidates = new int[0][];
+
+    /**
+     * Constructor for an empty field
+     *
+     * @param width horizontal extent of the world
+     * @param height vertical extent of the world
+     * @param cellSize smallest side length for a cell, in pixels
+     */
+    public LightField(int width, int height, double cellSize) {
+        cells = new TorusCells(width, height, cellSize);
+    }
+
+    /**
+     * @param w horizontal extent of the world
+     * @param h vertical extent of the world
+     * @return true if the field was laid out for a world of this size
+     */
+    public boolean covers(int w, int h) {
+        return cells.covers(w, h);
+    }
+
+    /**
+     * @return number of lights in the field
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Work out the candidates again for the lights among the
+     * passed agents, where they stand now.
+     *
+     * @param agents agents that will stay where they are, in list order
+     */
+    public void rebuild(List<Agent> agents) {
+        count = 0;
+        for (Agent a: agents) {
+            if (a.looksLike() == Percept.ObjectCategory.LIGHT)
+                count++;
+        }
+        lights = new Agent[count];
+        colorOf = new int[count];
+        colors = new int[0];
+        exhaustive = false;
+        int i = 0;
+        for (Agent a: agents) {
+            if (a.looksLike() != Percept.ObjectCategory.LIGHT)
+                continue;
+            lights[i] = a;
+            colorOf[i] = colorIndex(a.getColor().getRGB(), true);
+            if (a.getLocX() < 0 || a.getLocX() >= cells.width ||
+                    a.getLocY() < 0 || a.getLocY() >= cells.height)
+                exhaustive = true;
+            i++;
+        }
+
+        int groups = colors.length + 1;
+        start = new int[groups][cells.count() + 1];
+        candidates = new int[groups][];
+        if (exhaustive)
+            return;
+
+        // distance bounds from the current cell to each light
+        double[] near = new double[count];
+        double[] far = new double[count];
+        int[][] found = new int[groups][count];
+        int[] filled = new int[groups];
+        double[] best = new double[groups];
+        for (int g = 0; g < groups; g++) {
+            candidates[g] = new int[count];
+        }
+
+        for (int cell = 0; cell < cells.count(); cell++) {
+            double x0 = cells.left(cell);
+            double y0 = cells.top(cell);
+            Arrays.fill(best, Double.POSITIVE_INFINITY);
+            for (i = 0; i < count; i++) {
+                double lx = lights[i].getLocX();
+                double ly = lights[i].getLocY();
+                near[i] = Math.hypot(minGap(lx, x0, cells.cellWidth, cells.width),
+                        minGap(ly, y0, cells.cellHeight, cells.height));
+                far[i] = Math.hypot(maxGap(lx, x0, cells.cellWidth, cells.width),
+                        maxGap(ly, y0, cells.cellHeight, cells.height));
+                best[0] = Math.min(best[0], far[i]);
+                best[colorOf[i] + 1] = Math.min(best[colorOf[i] + 1], far[i]);
+            }
+            Arrays.fill(filled, 0);
+            for (i = 0; i < count; i++) {
+                if (near[i] <= best[0] + SLACK)
+                    found[0][filled[0]++] = i;
+                int g = colorOf[i] + 1;
+                if (near[i] <= best[g] + SLACK)
+                    found[g][filled[g]++] = i;
+            }
+            for (int g = 0; g < groups; g++) {
+                int at = start[g][cell];
+                if (candidates[g].length < at + filled[g])
+                    candidates[g] = Arrays.copyOf(candidates[g], Math.max(at + filled[g], 2 * candidates[g].length));
+                System.arraycopy(found[g], 0, candidates[g], at, filled[g]);
+                start[g][cell + 1] = at + filled[g];
+            }
+        }
+    }
+
+    /**
+     * Index into colors of the given RGB value
+     *
+     * @param rgb color value
+     * @param add true to add the color if it is new
+     * @return index, or -1 if the color is new and not added
+     */
+    private int colorIndex(int rgb, boolean add) {
+        for (int k = 0; k < colors.length; k++) {
+            if (colors[k] == rgb)
+                return k;
+        }
+        if (!add)
+            return -1;
+        colors = Arrays.copyOf(colors, colors.length + 1);
+        colors[colors.length - 1] = rgb;
+        return colors.length - 1;
+    }
+
+    /**
+     * Least distance around a circle from v to a point in [lo, lo + size)
+     */
+    private static double minGap(double v, double lo, double size, double limit) {
+        if (v >= lo && v <= lo + size)
+            return 0;
+        double a = Math.abs(World.displacementOnCircle(lo, v, limit));
+        double b = Math.abs(World.displacementOnCircle(Math.min(lo + size, limit), v, limit));
+        return Math.max(0, Math.min(a, b) - SLACK);
+    }
+
+    /**
+     * Greatest distance around a circle from v to a point in [lo, lo + size)
+     */
+    private static double maxGap(double v, double lo, double size, double limit) {
+        double opposite = World.clampToCircle(v + limit / 2, limit);
+        if (opposite >= lo && opposite <= lo + size)
+            return limit / 2;
+        double a = Math.abs(World.displacementOnCircle(lo, v, limit));
+        double b = Math.abs(World.displacementOnCircle(Math.min(lo + size, limit), v, limit));
+        return Math.min(limit / 2, Math.max(a, b) + SLACK);
+    }
+
+    /**
+     * Find the light nearest to (x, y), by the same measure of
+     * distance as World.senseAgent.
+     *
+     * @param x horizontal coordinate of the point to look from
+     * @param y vertical coordinate of the point to look from
+     * @param color only consider lights of this color (by RGB value),
+     *              or null for any color
+     * @return the nearest light, earliest in the list if there is a tie,
+     *         or null if there is no such light
+     */
+    public Agent nearest(double x, double y, Color color) {
+        int g = 0;
+        if (color != null) {
+            int k = colorIndex(color.getRGB(), false);
+            if (k < 0)
+                return null;
+            g = k + 1;
+        }
+
+        Agent best = null;
+        double bestDistance = 0;
+        if (exhaustive || x < 0 || x >= cells.width || y < 0 || y >= cells.height) {
+            for (int i = 0; i < count; i++) {
+                if (g == 0 || colorOf[i] == g - 1) {
+                    double d = distance(x, y, lights[i]);
+                    if (best == null || d < bestDistance) {
+                        best = lights[i];
+                        bestDistance = d;
+                    }
+                }
+            }
+            return best;
+        }
+
+        int cell = cells.cellAt(x, y);
+        for (int k = start[g][cell]; k < start[g][cell + 1]; k++) {
+            Agent l = lights[candidates[g][k]];
+            double d = distance(x, y, l);
+            if (best == null || d < bestDistance) {
+                best = l;
+                bestDistance = d;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Distance from (x, y) to light l, as World.senseAgent measures it
+     */
+    private double distance(double x, double y, Agent l) {
+        double dx = World.displacementOnCircle(x, l.getLocX(), cells.width);
+        double dy = World.displacementOnCircle(y, l.getLocY(), cells.height);
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -1,7 +1,5 @@
 import java.awt.Color;
 import java.awt.Graphics;
-import java.io.BufferedWriter;
-import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -57,17 +55,14 @@ public class LightSource extends Agent {
      * Output an XML element describing the current state of
      * this light source.
      * 
-     * @param out an open file to write to, wrapped in BufferedWriter 
-     *            convenience class
+     * @param out log text being built up
      */
     @Override
-    public void log(BufferedWriter out) 
-    throws IOException {
-        out.write("   <" + XML_NAME + " " + ID_PARAM + OPEN + Integer.toString(id) + CLOSE +
-        "\n     ");
+    public void log(LogEncoder out) {
+        out.write("   <" + XML_NAME + " ").attribute(ID_PARAM, id).write("\n     ");
         form.log(out);
         out.write("    ");
-        status.log(out);
+        logStatus(out);
         out.write("    />\n");
     }
 
@@ -75,12 +70,16 @@ public class LightSource extends Agent {
      * Draw a light source as a filled circle.
      * 
      * @param g object to control drawing mechanism
+     * @param x horizontal coordinate of the light
+     * @param y vertical coordinate of the light
+     * @param heading unused: a circle looks the same every way
+     * @param color color to draw in
      */
     @Override
-    public void draw(Graphics g) {
-        g.setColor(form.color);
-        g.fillOval((int) Math.round(status.locX - form.size/2),
-                (int) Math.round(status.locY - form.size/2), 
+    public void draw(Graphics g, double x, double y, double heading, Color color) {
+        g.setColor(color);
+        g.fillOval((int) Math.round(x - form.size/2),
+                (int) Math.round(y - form.size/2), 
                 form.size, form.size);
     }
 
@@ -94,6 +93,26 @@ public class LightSource extends Agent {
         return Percept.ObjectCategory.LIGHT;
     }
 
+    /**
+     * A light source pays no attention to anything
+     * 
+     * @return false
+     */
+    @Override
+    public boolean perceives() {
+        return false;
+    }
+
+    /**
+     * A light source stays put unless it was set in motion
+     * 
+     * @return true if it has a speed
+     */
+    @Override
+    public boolean moves() {
+        return getForwardV() != 0;
+    }
+
     /**
      * Never do anything
      * 
@@ -0,0 +1,270 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * LogConverter turns a binary log (see TrajectoryLog) into
+ * the XML log World would have written for the same run, so
+ * it can be replayed by Simulation, and turns an XML log into
+ * the binary form.  Either way the log is read and written a
+ * step at a time, so logs of any length can be converted.
+ *
+ * Going from XML, agents given in complete detail are kept as
+ * single-line elements with the same attributes, and update
+ * elements that leave out some of the dynamic parameters are
+ * filled in with the values last logged for the agent.
+ *
+ * @version 1.0
+ */
+public class LogConverter {
+
+    /**
+     * SAX handler that writes the binary form of the XML log it reads
+     */
+    static class Encoder extends DefaultHandler {
+
+        /** Binary form being written */
+        private final TrajectoryLog log = new TrajectoryLog();
+        /** Records not yet handed to file */
+        private final LogEncoder out = new LogEncoder();
+        /** Where the binary log goes, in TrajectoryLog.CHARSET */
+        private final Writer file;
+        /** Used to construct error messages based on file position */
+        private Locator locator;
+        /** Step of the current or last state description */
+        private int step;
+        /** True between the start and end of a state description */
+        private boolean inState;
+        /** Kind of record open for the current state, STATE, STEP or 0 for none */
+        private char open;
+
+        /**
+         * Constructor
+         *
+         * @param file where the binary log should go
+         */
+        Encoder(Writer file) {
+            this.file = file;
+        }
+
+        public void setDocumentLocator(Locator locator) {
+            this.locator = locator;
+        }
+
+        public void startElement(String uri, String name, String qName, Attributes atts)
+        throws SAXException {
+            if (!World.XMLNS.equals(uri) && !"".equals(uri))
+                return;
+            if (World.XML_NAME.equals(name)) {
+                log.begin(out);
+                log.world(out,
+                        FlockingReader.getIntParam(atts, World.WIDTH_PARAM, World.DEFAULT_WIDTH, locator),
+                        FlockingReader.getIntParam(atts, World.HEIGHT_PARAM, World.DEFAULT_HEIGHT, locator));
+            } else if (World.STATE_NAME.equals(name)) {
+                step = FlockingReader.getIntParam(atts, World.STEP_NAME, step, locator);
+                inState = true;
+                open = 0;
+            } else if (World.DIE_NAME.equals(name)) {
+                begin((char) 0);
+                log.kill(out, id(atts));
+            } else if (!inState || World.WAIT_NAME.equals(name)) {
+                return;
+            } else if (Agent.UPDATE.equals(name)) {
+                begin(TrajectoryLog.STEP);
+                int id = id(atts);
+                log.update(out, id,
+                        value(atts, Agent.DynamicAgentAttributes.X_PARAM, id, 0),
+                        value(atts, Agent.DynamicAgentAttributes.Y_PARAM, id, 1),
+                        value(atts, Agent.DynamicAgentAttributes.HEADING_PARAM, id, 2),
+                        value(atts, Agent.DynamicAgentAttributes.FORWARD_PARAM, id, 3));
+            } else {
+                begin(TrajectoryLog.STATE);
+                StringBuilder xml = new StringBuilder("   <").append(qName);
+                for (int i = 0; i < atts.getLength(); i++) {
+                    xml.append(' ').append(atts.getQName(i)).append("=\"");
+                    escape(atts.getValue(i), xml);
+                    xml.append('"');
+                }
+                log.description(out, xml.append(" />\n").toString());
+            }
+        }
+
+        public void endElement(String uri, String name, String qName)
+        throws SAXException {
+            if (!World.XMLNS.equals(uri) && !"".equals(uri))
+                return;
+            if (World.STATE_NAME.equals(name)) {
+                if (open == 0)
+                    begin(TrajectoryLog.STEP);
+                begin((char) 0);
+                inState = false;
+                flush();
+            } else if (World.XML_NAME.equals(name)) {
+                log.end(out);
+                flush();
+            }
+        }
+
+        public void endDocument() throws SAXException {
+            flush();
+        }
+
+        /**
+         * Make sure a record of the given kind is open for
+         * the current state, closing any other
+         */
+        private void begin(char kind) {
+            if (open == kind)
+                return;
+            if (open == TrajectoryLog.STATE)
+                log.endState(out);
+            else if (open == TrajectoryLog.STEP)
+                log.endStep(out);
+            if (kind == TrajectoryLog.STATE)
+                log.state(out, step);
+            else if (kind == TrajectoryLog.STEP)
+                log.step(out, step);
+            open = kind;
+        }
+
+        /**
+         * @return the id of the agent an element is about
+         */
+        private int id(Attributes atts) throws SAXException {
+            int id = FlockingReader.getIntParam(atts, Agent.ID_PARAM, -1, locator);
+            if (id < 0)
+                throw new SAXException(FlockingReader.locationMsg(locator) + "Missing " + Agent.ID_PARAM);
+            return id;
+        }
+
+        /**
+         * @return a dynamic parameter of an update, or the
+         *         value last logged for the agent if it is left out
+         */
+        private double value(Attributes atts, String param, int id, int value) throws SAXException {
+            double last = Double.longBitsToDouble(log.previous(id, value));
+            return FlockingReader.getDoubleParam(atts, param, last, locator);
+        }
+
+        /**
+         * Hand the records written so far to the file
+         */
+        private void flush() throws SAXException {
+            try {
+                out.writeTo(file);
+                out.reset();
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        /**
+         * Append s to xml as the value of an attribute
+         */
+        private static void escape(String s, StringBuilder xml) {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '&')
+                    xml.append("&amp;");
+                else if (c == '<')
+                    xml.append("&lt;");
+                else if (c == '"')
+                    xml.append("&quot;");
+                else
+                    xml.append(c);
+            }
+        }
+    }
+
+    /**
+     * Write the binary form of an XML log
+     *
+     * @param in the XML log
+     * @param out where the binary log should go, in TrajectoryLog.CHARSET
+     * @throws SAXException if the XML cannot be read
+     * @throws IOException if either file fails
+     */
+    public static void toBinary(InputSource in, Writer out) throws SAXException, IOException {
+        XMLReader xr;
+        try {
+            SAXParserFactory spf = SAXParserFactory.newInstance();
+            spf.setNamespaceAware(true);
+            xr = spf.newSAXParser().getXMLReader();
+        } catch (ParserConfigurationException e) {
+            throw new SAXException(e);
+        }
+        Encoder handler = new Encoder(out);
+        xr.setContentHandler(handler);
+        xr.setErrorHandler(handler);
+        xr.parse(in);
+        out.flush();
+    }
+
+    /**
+     * Command-line interface to the converter
+     *
+     * @param args the log to convert, and where to write the result;
+     *             a binary log (named with TrajectoryLog.EXTENSION)
+     *             becomes XML, anything else is read as XML and
+     *             becomes binary.  Optionally, a step: only the
+     *             log from the keyframe before it is converted
+     *             (see LogIndex)
+     */
+    public static void main(String[] args) {
+        if (args.length != 2 && args.length != 3) {
+            System.err.println("Usage error: run as <program> <logfile> <outfile> [<step>].");
+            return;
+        }
+        try {
+            InputStream log = args.length > 2
+                    ? LogIndex.open(args[0], Integer.parseInt(args[2]))
+                    : new FileInputStream(args[0]);
+            if (TrajectoryLog.isBinary(args[0])) {
+                InputStream in = new BufferedInputStream(log, LogWriter.FILE_BUFFER);
+                Writer out = new BufferedWriter(new FileWriter(args[1]), LogWriter.FILE_BUFFER);
+                try {
+                    TrajectoryLog.toXml(in, out);
+                } finally {
+                    in.close();
+                    out.close();
+                }
+            } else {
+                Reader in = new InputStreamReader(log);
+                Writer out = new BufferedWriter(
+                        new OutputStreamWriter(new FileOutputStream(args[1]), TrajectoryLog.CHARSET),
+                        LogWriter.FILE_BUFFER);
+                try {
+                    toBinary(new InputSource(in), out);
+                } finally {
+                    in.close();
+                    out.close();
+                }
+            }
+        } catch (SAXException e) {
+            System.err.println(e.getMessage());
+        } catch (FileNotFoundException e) {
+            System.err.println(e.getMessage());
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        } catch (NumberFormatException e) {
+            System.err.println("Usage error: step must be an integer, not " + args[2]);
+        }
+    }
+}
@@ -0,0 +1,354 @@
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A reusable buffer that XML log text is written into, with
+ * numbers and attributes turned into characters in place rather
+ * than by way of Strings.  Every agent's log and changelog write
+ * through one of these (see LogWriter), and what ends up in the
+ * buffer is exactly what the old String concatenation gave.
+ *
+ * Doubles come out as Double.toString would write them.  Values
+ * from 0.001 up to ten million - nearly everything an agent logs -
+ * are formatted directly: the fewest digits after the point that
+ * read back as the same double, nearest the double if there is a
+ * choice, worked out exactly in 128-bit integer arithmetic.  Other
+ * values, and the rare ones whose digits would be decided by a tie,
+ * are handed to Double.toString itself.
+ *
+ * @version 1.0
+ */
+public class LogEncoder {
+
+    /** Starting capacity of the buffer */
+    static final int INITIAL_CAPACITY = 1 << 12;
+
+    /** Smallest magnitude formatted without Double.toString */
+    static final double FAST_MIN = 1e-3;
+
+    /** Magnitude from which Double.toString switches to scientific notation */
+    static final double FAST_LIMIT = 1e7;
+
+    /** Powers of ten that fit in a long */
+    private static final long[] POW10 = new long[19];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = 10 * POW10[i - 1];
+        }
+    }
+
+    /** Common logarithm of 2 */
+    private static final double LOG10_2 = Math.log10(2);
+
+    /** 10^8, for writing digits eight at a time */
+    private static final long EIGHT_DIGITS = 100000000L;
+
+    /** The two digits of each number below 100 */
+    private static final char[] PAIRS = new char[200];
+    static {
+        for (int d = 0; d < 100; d++) {
+            PAIRS[2 * d] = (char) ('0' + d / 10);
+            PAIRS[2 * d + 1] = (char) ('0' + d % 10);
+        }
+    }
+
+    /** Characters written so far */
+    private char[] buf;
+    /** How many entries of buf are valid */
+    private int size;
+
+    /**
+     * Constructor for an empty buffer
+     */
+    public LogEncoder() {
+        buf = new char[INITIAL_CAPACITY];
+    }
+
+    /**
+     * @return number of characters written since the last reset
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Forget everything written, keeping the buffer for reuse
+     */
+    public void reset() {
+        size = 0;
+    }
+
+    /**
+     * Copy everything written so far to out
+     *
+     * @param out where the characters should go
+     * @throws IOException if out fails
+     */
+    public void writeTo(Writer out) throws IOException {
+        out.write(buf, 0, size);
+    }
+
+    /**
+     * @return everything written so far
+     */
+    public String toString() {
+        return new String(buf, 0, size);
+    }
+
+    /**
+     * Make room for n more characters
+     */
+    private void reserve(int n) {
+        if (size + n > buf.length) {
+            char[] bigger = new char[Math.max(size + n, 2 * buf.length)];
+            System.arraycopy(buf, 0, bigger, 0, size);
+            buf = bigger;
+        }
+    }
+
+    /**
+     * @param s text to append
+     * @return this encoder
+     */
+    public LogEncoder write(String s) {
+        int n = s.length();
+        reserve(n);
+        s.getChars(0, n, buf, size);
+        size += n;
+        return this;
+    }
+
+    /**
+     * @param c character to append
+     * @return this encoder
+     */
+    public LogEncoder write(char c) {
+        reserve(1);
+        buf[size++] = c;
+        return this;
+    }
+
+    /**
+     * Append an integer as Integer.toString would write it
+     *
+     * @param v value to append
+     * @return this encoder
+     */
+    public LogEncoder number(int v) {
+        if (v == Integer.MIN_VALUE)
+            return write(Integer.toString(v));
+        reserve(11);
+        if (v < 0) {
+            buf[size++] = '-';
+            v = -v;
+        }
+        digits(v, 0);
+        return this;
+    }
+
+    /**
+     * Append a long as Long.toString would write it
+     *
+     * @param v value to append
+     * @return this encoder
+     */
+    public LogEncoder number(long v) {
+        if (v == Long.MIN_VALUE)
+            return write(Long.toString(v));
+        reserve(20);
+        if (v < 0) {
+            buf[size++] = '-';
+            v = -v;
+        }
+        digits(v, 0);
+        return this;
+    }
+
+    /**
+     * Append a double as Double.toString would write it
+     *
+     * @param v value to append
+     * @return this encoder
+     */
+    public LogEncoder number(double v) {
+        if (v == 0)
+            return write(Double.doubleToRawLongBits(v) < 0 ? "-0.0" : "0.0");
+        double a = Math.abs(v);
+        if (!(a >= FAST_MIN && a < FAST_LIMIT) || !decimal(v < 0, a))
+            write(Double.toString(v));
+        return this;
+    }
+
+    /**
+     * Append a boolean as Boolean.toString would write it
+     *
+     * @param v value to append
+     * @return this encoder
+     */
+    public LogEncoder bool(boolean v) {
+        return write(v ? "true" : "false");
+    }
+
+    /**
+     * Append an XML attribute, name="value" and a space
+     *
+     * @param name attribute name
+     * @param v value
+     * @return this encoder
+     */
+    public LogEncoder attribute(String name, int v) {
+        return write(name).write(Agent.OPEN).number(v).write(Agent.CLOSE);
+    }
+
+    /**
+     * Append an XML attribute, name="value" and a space
+     *
+     * @param name attribute name
+     * @param v value
+     * @return this encoder
+     */
+    public LogEncoder attribute(String name, double v) {
+        return write(name).write(Agent.OPEN).number(v).write(Agent.CLOSE);
+    }
+
+    /**
+     * Append an XML attribute, name="value" and a space
+     *
+     * @param name attribute name
+     * @param v value
+     * @return this encoder
+     */
+    public LogEncoder attribute(String name, boolean v) {
+        return write(name).write(Agent.OPEN).bool(v).write(Agent.CLOSE);
+    }
+
+    /**
+     * Append an XML attribute, name="value" and a space
+     *
+     * @param name attribute name
+     * @param v value, written as it is
+     * @return this encoder
+     */
+    public LogEncoder attribute(String name, String v) {
+        return write(name).write(Agent.OPEN).write(v).write(Agent.CLOSE);
+    }
+
+    /**
+     * Append the decimal digits of a non-negative long, padded
+     * with leading zeros to at least width digits.
+     * Room must already have been reserved.
+     */
+    private void digits(long v, int width) {
+        int n = 1;
+        while (n < POW10.length && v >= POW10[n]) {
+            n++;
+        }
+        int end = size + Math.max(n, width);
+        int i = end;
+        // eight digits at a time in int arithmetic, two by two
+        while (v >= EIGHT_DIGITS) {
+            long q = v / EIGHT_DIGITS;
+            int r = (int) (v - q * EIGHT_DIGITS);
+            v = q;
+            for (int k = 0; k < 4; k++) {
+                int d = r % 100;
+                r /= 100;
+                buf[--i] = PAIRS[2 * d + 1];
+                buf[--i] = PAIRS[2 * d];
+            }
+        }
+        int r = (int) v;
+        while (i > size) {
+            buf[--i] = (char) ('0' + r % 10);
+            r /= 10;
+        }
+        size = end;
+    }
+
+    /**
+     * Append the shortest decimal that reads back as a, with at
+     * least one digit after the point, if it can be found for
+     * sure; a must lie between FAST_MIN and FAST_LIMIT.
+     *
+     * a is mant / 2^s exactly.  A decimal m / 10^f reads back as a
+     * when it is within half a unit in the last place of a, that is
+     * when m * 2^s is within 10^f / 2 of mant * 10^f.  If some m
+     * with f digits after the point reads back, so does one with
+     * f + 1, so the fewest digits can be found by bisection.
+     *
+     * @return false, having appended nothing, if Double.toString must decide
+     */
+    private boolean decimal(boolean negative, double a) {
+        long bits = Double.doubleToRawLongBits(a);
+        long mant = (bits & ((1L << 52) - 1)) | (1L << 52);
+        int s = 1075 - (int) (bits >>> 52);
+        // at a power of two the gap below is half the gap above
+        if (mant == 1L << 52 || s <= 0 || s >= 63)
+            return false;
+
+        // 17 significant digits always read back, and a is below 2^(53 - s),
+        // so this many digits after the point are enough
+        int low = 0;
+        int high = Math.min(POW10.length - 1, 17 - (int) Math.floor((52 - s) * LOG10_2));
+        long m = nearest(mant, s, high);
+        if (m < 0)
+            return false;
+        while (low < high) {
+            int f = (low + high) >>> 1;
+            long n = nearest(mant, s, f);
+            if (n == TIE)
+                return false;
+            if (n >= 0) {
+                high = f;
+                m = n;
+            } else {
+                low = f + 1;
+            }
+        }
+
+        int f = high;
+        reserve(42);
+        if (negative)
+            buf[size++] = '-';
+        digits(m / POW10[f], 0);
+        buf[size++] = '.';
+        if (f == 0)
+            buf[size++] = '0';
+        else
+            digits(m % POW10[f], f);
+        return true;
+    }
+
+    /** Returned by nearest when it cannot say for sure */
+    private static final long TIE = -2;
+
+    /**
+     * The decimal with f digits after the point nearest to
+     * mant / 2^s, scaled by 10^f, if it reads back as mant / 2^s
+     *
+     * @return the scaled decimal, -1 if it does not read back,
+     *         or TIE if the answer depends on how ties are broken
+     */
+    private static long nearest(long mant, int s, int f) {
+        long p = POW10[f];
+        long one = 1L << s;
+        // mant * p as a 128-bit number, then split at bit s
+        long hi = Math.multiplyHigh(mant, p);
+        long lo = mant * p;
+        if ((hi >>> s) != 0)
+            return TIE;
+        long m = (hi << (64 - s)) | (lo >>> s);
+        long r = lo & (one - 1);
+        if (r > one - r) {
+            m++;
+            r = one - r;
+        } else if (r == one - r) {
+            // m and m + 1 equally near: both read back, or neither
+            return 2 * r < p ? TIE : -1;
+        }
+        if (2 * r == p)
+            return TIE;
+        return 2 * r < p ? m : -1;
+    }
+}
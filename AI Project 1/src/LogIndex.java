@@ -0,0 +1,107 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+/**
+ * The index kept beside a log written with keyframes (see
+ * World.setKeyframeInterval), so that replay can start at any
+ * step without reading the whole log first.
+ *
+ * A keyframe is a state giving every agent in complete detail,
+ * just like the state at the start of the log.  The index is a
+ * text file, named for the log with EXTENSION added, with a line
+ * "step offset" for the start of the log and for each keyframe,
+ * where offset is the byte at which the keyframe's state begins.
+ * Everything before the first offset is the log header, which
+ * is all a reader needs besides a keyframe: the header followed
+ * by the log from a keyframe on is a complete log of its own.
+ * For binary logs, each keyframe begins the log afresh, so it
+ * can be decoded without anything that came before it.
+ *
+ * @version 1.0
+ */
+public class LogIndex {
+
+    /** Added to the log file name to name its index */
+    static final String EXTENSION = ".idx";
+
+    /**
+     * @param logfile name of a log file
+     * @return name of its index
+     */
+    public static String fileFor(String logfile) {
+        return logfile + EXTENSION;
+    }
+
+    /**
+     * Append the index line for a keyframe
+     *
+     * @param out index being written
+     * @param step step the keyframe describes
+     * @param offset where the keyframe begins in the log, in bytes
+     */
+    public static void entry(LogEncoder out, int step, long offset) {
+        out.number(step).write(' ').number(offset).write('\n');
+    }
+
+    /**
+     * Open a log for replay from the last keyframe at or before
+     * the given step: the header of the log, then the log from that
+     * keyframe to the end.  With no keyframe that early, or no index,
+     * this is the whole log.
+     *
+     * @param logfile name of the log file
+     * @param step step replay should reach first
+     * @return the log to replay, read from disk as it is needed
+     * @throws IOException if the log or its index cannot be read
+     */
+    public static InputStream open(String logfile, int step) throws IOException {
+        File index = new File(fileFor(logfile));
+        long header = -1;
+        long start = -1;
+        if (index.exists()) {
+            BufferedReader r = new BufferedReader(new FileReader(index));
+            try {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    String[] fields = line.trim().split("\\s+");
+                    if (fields.length != 2)
+                        continue;
+                    int at;
+                    long offset;
+                    try {
+                        at = Integer.parseInt(fields[0]);
+                        offset = Long.parseLong(fields[1]);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Bad line in " + index + ": " + line);
+                    }
+                    if (header < 0)
+                        header = offset;
+                    if (at <= step)
+                        start = offset;
+                }
+            } finally {
+                r.close();
+            }
+        }
+
+        FileInputStream log = new FileInputStream(logfile);
+        if (start <= header)
+            return log;
+        byte[] head = new byte[(int) header];
+        try {
+            new DataInputStream(log).readFully(head);
+            log.getChannel().position(start);
+        } catch (IOException e) {
+            log.close();
+            throw e;
+        }
+        return new SequenceInputStream(new ByteArrayInputStream(head), log);
+    }
+}
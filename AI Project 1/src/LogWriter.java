@@ -0,0 +1,223 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A log file that stays open for the whole run and is written
+ * by a thread of its own, so that the simulation never waits
+ * for the disk.  Text is written to the LogEncoder out() returns;
+ * send() then hands everything written since the last send to
+ * the writing thread, which writes whatever has piled up in one
+ * go and flushes the file whenever it has caught up.  Encoders
+ * the writing thread has finished with are handed back for reuse,
+ * so a long run keeps writing into the same few buffers.
+ *
+ * Batches wait in a bounded queue.  If the queue is full, send()
+ * keeps the text and tries again next time, so the batch just
+ * grows; only once MAX_PENDING characters are held back does
+ * send() wait for the writing thread to make room.
+ *
+ * The file gets exactly the characters written to out(), in order.
+ * An error on the writing thread stops further writing and is
+ * reported by the next send() or by close().
+ *
+ * @version 1.0
+ */
+public class LogWriter {
+
+    /** How many batches can wait for the writing thread */
+    static final int QUEUE_LENGTH = 64;
+
+    /** How much text send() will hold back before it waits for room */
+    static final int MAX_PENDING = 1 << 22;
+
+    /** Size of the buffer between the writing thread and the file */
+    static final int FILE_BUFFER = 1 << 16;
+
+    /** Marks the end of the log in the queue */
+    private static final LogEncoder END = new LogEncoder();
+
+    /** Where the simulation writes the next batch */
+    private LogEncoder batch = new LogEncoder();
+    /** Batches waiting to be written */
+    private final BlockingQueue<LogEncoder> queue = new ArrayBlockingQueue<LogEncoder>(QUEUE_LENGTH);
+    /** Emptied batches, ready to be written again */
+    private final ConcurrentLinkedQueue<LogEncoder> spare = new ConcurrentLinkedQueue<LogEncoder>();
+    /** The open file, used only by the writing thread */
+    private final BufferedWriter file;
+    /** The writing thread */
+    private final Thread writer;
+    /** First error on the writing thread, if any */
+    private volatile IOException failure;
+    /** Characters in the file, counting those handed to the writing thread */
+    private long written;
+
+    /**
+     * Constructor: open the file, to be written in the
+     * platform's default character set, and start the writing thread
+     *
+     * @param filename name of the log file
+     * @param append true to add to the end of the file,
+     *               false to start it afresh
+     * @throws IOException if the file cannot be opened
+     */
+    public LogWriter(String filename, boolean append) throws IOException {
+        this(filename, append, Charset.defaultCharset());
+    }
+
+    /**
+     * Constructor: open the file and start the writing thread
+     *
+     * @param filename name of the log file
+     * @param append true to add to the end of the file,
+     *               false to start it afresh
+     * @param charset how characters are turned into bytes in the file
+     * @throws IOException if the file cannot be opened
+     */
+    public LogWriter(String filename, boolean append, Charset charset) throws IOException {
+        written = append ? new File(filename).length() : 0;
+        file = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename, append), charset), FILE_BUFFER);
+        writer = new Thread("log writer for " + filename) {
+            public void run() {
+                drain();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return encoder for the text of the next batch
+     */
+    public LogEncoder out() {
+        return batch;
+    }
+
+    /**
+     * Where the next character written to out() will be in the file.
+     * This is a byte offset as long as every character written so far
+     * takes one byte in the file's character set, as log text does.
+     *
+     * @return number of characters before it
+     */
+    public long position() {
+        return written + batch.size();
+    }
+
+    /**
+     * Hand what has been written to out() since the last call
+     * over to the writing thread.  Waits only if the writing
+     * thread has fallen far behind.
+     *
+     * @throws IOException if the writing thread has failed
+     */
+    public void send() throws IOException {
+        if (failure != null)
+            throw failure;
+        int n = batch.size();
+        if (n == 0)
+            return;
+        // once queued, the batch belongs to the writing thread
+        if (queue.offer(batch)) {
+            written += n;
+            batch = fresh();
+        } else if (n >= MAX_PENDING) {
+            put(batch);
+            written += n;
+            batch = fresh();
+        }
+    }
+
+    /**
+     * @return an empty batch, reused if one has come back
+     */
+    private LogEncoder fresh() {
+        LogEncoder e = spare.poll();
+        return e != null ? e : new LogEncoder();
+    }
+
+    /**
+     * Send whatever is left, wait for all of it to be written,
+     * and close the file.
+     *
+     * @throws IOException if anything could not be written
+     */
+    public void close() throws IOException {
+        if (batch.size() > 0 && failure == null) {
+            written += batch.size();
+            put(batch);
+            batch = fresh();
+        }
+        batch.reset();
+        put(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Queue text, waiting for room if need be
+     */
+    private void put(LogEncoder text) throws IOException {
+        try {
+            queue.put(text);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to write log");
+        }
+    }
+
+    /**
+     * Body of the writing thread: write batches as they come,
+     * as many at a time as are waiting, until the end is reached.
+     */
+    private void drain() {
+        List<LogEncoder> ready = new ArrayList<LogEncoder>();
+        boolean done = false;
+        while (!done) {
+            try {
+                ready.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(ready);
+            for (LogEncoder text: ready) {
+                if (text == END) {
+                    done = true;
+                    break;
+                }
+                if (failure == null) {
+                    try {
+                        text.writeTo(file);
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                text.reset();
+                spare.offer(text);
+            }
+            ready.clear();
+            try {
+                if (done)
+                    file.close();
+                else if (failure == null && queue.isEmpty())
+                    file.flush();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+    }
+}
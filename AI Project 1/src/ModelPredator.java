@@ -1,7 +1,5 @@
 import java.awt.Color;
 import java.awt.Graphics;
-import java.io.BufferedWriter;
-import java.io.IOException;
 import java.util.List;
 
 import org.xml.sax.Attributes;
@@ -64,16 +62,13 @@ public class ModelPredator extends Follower {
      * Output an XML element describing the current state of
      * this follower.
      * 
-     * @param out an open file to write to, wrapped in BufferedWriter 
-     *            convenience class
+     * @param out log text being built up
      */
-    public void log(BufferedWriter out) 
-    throws IOException {
-        out.write("   <" + XML_NAME + " " + ID_PARAM + OPEN + Integer.toString(id) + CLOSE +
-        "\n     ");
+    public void log(LogEncoder out) {
+        out.write("   <" + XML_NAME + " ").attribute(ID_PARAM, id).write("\n     ");
         form.log(out);
         out.write("    ");
-        status.log(out);
+        logStatus(out);
         out.write("    />\n");
     }
 
@@ -152,9 +147,9 @@ public class ModelPredator extends Follower {
      * Specialized drawing method in case you want debugging help
      */
     @Override
-    public void draw(Graphics g) {
+    public void draw(Graphics g, double x, double y, double heading, Color color) {
         // TBC: Debug visualization here
-        super.draw(g);
+        super.draw(g, x, y, heading, color);
     }
     
     /**
@@ -193,5 +188,28 @@ public class ModelPredator extends Follower {
             steerTo(closestSeen);
         }
     }
-    
+
+    /**
+     * Only boids matter to this predator, so deliberate over those alone.
+     * 
+     * @param ps A description of everything the agent can see
+     */
+    @Override
+    public void deliberate(PerceptList ps) {
+        deliberate(ps.boids());
+    }
+
+    /** Percepts of interest to a predator */
+    static final PerceptFilter BOIDS = new PerceptFilter().want(Percept.ObjectCategory.BOID);
+
+    /**
+     * A predator only ever goes after boids
+     * 
+     * @return filter passing boids only
+     */
+    @Override
+    public PerceptFilter interests() {
+        return BOIDS;
+    }
+
 }
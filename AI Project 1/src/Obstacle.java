@@ -1,7 +1,5 @@
 import java.awt.Color;
 import java.awt.Graphics;
-import java.io.BufferedWriter;
-import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -44,21 +42,24 @@ public class Obstacle extends Agent {
         status = new DynamicAgentAttributes(atts, defaultDynamicAgentAttributes, loc);
     }
 
+    /**
+     * Constructor for subclasses that fill in the agent fields themselves
+     */
+    protected Obstacle() {
+    }
+
     /**
      * Output an XML element describing the current state of
      * this obstacle.
      * 
-     * @param out an open file to write to, wrapped in BufferedWriter 
-     *            convenience class
+     * @param out log text being built up
      */
     @Override
-    public void log(BufferedWriter out) 
-    throws IOException {
-        out.write("   <" + XML_NAME + " " + ID_PARAM + OPEN + Integer.toString(id) + CLOSE +
-        "\n     ");
+    public void log(LogEncoder out) {
+        out.write("   <" + XML_NAME + " ").attribute(ID_PARAM, id).write("\n     ");
         form.log(out);
         out.write("    ");
-        status.log(out);
+        logStatus(out);
         out.write("    />\n");
     }
 
@@ -66,12 +67,16 @@ public class Obstacle extends Agent {
      * Draw the obstacle as a filled square
      * 
      * @param g object to control drawing mechanism
+     * @param x horizontal coordinate of the obstacle
+     * @param y vertical coordinate of the obstacle
+     * @param heading unused: the square is never turned
+     * @param color color to draw in
      */
     @Override
-    public void draw(Graphics g) {
-        g.setColor(form.color);
-        myWorld.fillRect((int) Math.round(status.locX - form.size / 2), 
-                (int) Math.round(status.locY - form.size / 2), 
+    public void draw(Graphics g, double x, double y, double heading, Color color) {
+        g.setColor(color);
+        myWorld.fillRect((int) Math.round(x - form.size / 2), 
+                (int) Math.round(y - form.size / 2), 
                 form.size, form.size, g);
     }
 
@@ -96,6 +101,28 @@ public class Obstacle extends Agent {
         return InteractiveBehavior.OBSTRUCT;
     }
 
+    /**
+     * An obstacle only gets in the way; it never needs
+     * to know what is around it
+     * 
+     * @return false
+     */
+    @Override
+    public boolean perceives() {
+        return false;
+    }
+
+    /**
+     * An obstacle is usually a fixed part of the terrain, but
+     * one given a speed in the XML drifts along with it
+     * 
+     * @return true if it has a speed
+     */
+    @Override
+    public boolean moves() {
+        return getForwardV() != 0;
+    }
+
     /**
      * Never do anything
      * 
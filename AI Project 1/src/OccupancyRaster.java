@@ -0,0 +1,208 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A fine raster laid over the torus world, recording which
+ * cells are covered by the boxes of agents that never move,
+ * so that a mover can find everything fixed that lies across
+ * its path by walking the cells along the path, however many
+ * such agents there are elsewhere in the world.
+ *
+ * Each agent is filed in every cell its bounding box (see
+ * Agent.getHalfWidth and Agent.getHalfHeight) touches, wrapping
+ * around the edges of the world.  Boxes are widened by a tiny
+ * margin before they are rasterized, so an agent whose box
+ * the path just grazes is still found despite rounding in the walk.
+ * Like SpatialGrid, the raster only guarantees that nobody
+ * the path meets is missed; callers still have to check the
+ * exact collision (see World.detectCollision).
+ *
+ * Agents are reported by their position in the list the raster
+ * was built from, in increasing order, without repeats.
+ *
+ * @version 1.0
+ */
+public class OccupancyRaster {
+
+    /** How far boxes are widened to allow for rounding, in pixels */
+    static final double MARGIN = 1e-6;
+
+    /** Cells the world is cut into */
+    private final TorusCells cells;
+
+    /** The agents rasterized, in list order */
+    private Agent[] members = new Agent[0];
+    /** How many entries of members are valid */
+    private int count = 0;
+    /** For each cell c, entries[cellStart[c]] to entries[cellStart[c+1]-1] are its agents */
+    private final int[] cellStart;
+    /** Agent positions grouped by cell, increasing within each cell */
+    private int[] entries = new int[0];
+
+    /**
+     * Constructor
+     *
+     * @param width horizontal extent of the world
+     * @param height vertical extent of the world
+     * @param cellSize smallest side length for a cell, in pixels
+     */
+    public OccupancyRaster(int width, int height, double cellSize) {
+        cells = new TorusCells(width, height, cellSize);
+        cellStart = new int[cells.count() + 1];
+    }
+
+    /**
+     * @param w horizontal extent of the world
+     * @param h vertical extent of the world
+     * @return true if the raster was laid out for a world of this size
+     */
+    public boolean covers(int w, int h) {
+        return cells.covers(w, h);
+    }
+
+    /**
+     * @return number of agents in the raster
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param i position of agent in the rasterized list
+     * @return the agent at that position
+     */
+    public Agent get(int i) {
+        return members[i];
+    }
+
+    /**
+     * Rasterize the boxes of the passed agents where they stand,
+     * throwing away whatever was there before.
+     * Cells are filled in two passes, counting then filing,
+     * so each cell's agents stay in list order.
+     *
+     * @param agents agents that will stay where they are
+     */
+    public void rebuild(List<Agent> agents) {
+        count = agents.size();
+        if (members.length < count)
+            members = new Agent[count];
+        Arrays.fill(members, count, members.length, null);
+        Arrays.fill(cellStart, 0);
+
+        int i = 0;
+        int filed = 0;
+        for (Agent a: agents) {
+            members[i] = a;
+            filed += fill(a, i, null);
+            i++;
+        }
+        for (int c = 0; c < cells.count(); c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        if (entries.length < filed)
+            entries = new int[filed];
+        int[] next = Arrays.copyOf(cellStart, cells.count());
+        for (i = 0; i < count; i++) {
+            fill(members[i], i, next);
+        }
+    }
+
+    /**
+     * Visit each cell the box of agent a touches: if next is null,
+     * count a in the cell; otherwise file position i in it.
+     *
+     * @return number of cells touched
+     */
+    private int fill(Agent a, int i, int[] next) {
+        double halfWidth = a.getHalfWidth() + MARGIN;
+        double halfHeight = a.getHalfHeight() + MARGIN;
+        int c0 = cells.columnOf(a.getLocX() - halfWidth);
+        int c1 = cells.lastColumn(c0, a.getLocX() + halfWidth);
+        int r0 = cells.rowOf(a.getLocY() - halfHeight);
+        int r1 = cells.lastRow(r0, a.getLocY() + halfHeight);
+
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = cells.cell(c, r);
+                if (next == null)
+                    cellStart[cell + 1]++;
+                else
+                    entries[next[cell]++] = i;
+            }
+        }
+        return (r1 - r0 + 1) * (c1 - c0 + 1);
+    }
+
+    /**
+     * Find every agent whose box might meet the path from
+     * (x0, y0) to (x1, y1), walking the cells the path passes
+     * through in order, wrapping around the edges of the world.
+     *
+     * @param x0 horizontal coordinate of start of path
+     * @param y0 vertical coordinate of start of path
+     * @param x1 horizontal coordinate of end of path, need not be wrapped
+     * @param y1 vertical coordinate of end of path, need not be wrapped
+     * @param hits buffer to fill; cleared first, sorted and without repeats on return
+     */
+    public void trace(double x0, double y0, double x1, double y1, SpatialGrid.Hits hits) {
+        hits.size = 0;
+        if (count == 0)
+            return;
+
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        int c = cells.columnOf(x0);
+        int r = cells.rowOf(y0);
+        int endC = cells.columnOf(x1);
+        int endR = cells.rowOf(y1);
+        int stepC = endC > c ? 1 : -1;
+        int stepR = endR > r ? 1 : -1;
+
+        // fraction of the path at which it crosses into the next column or row
+        double nextC = Double.POSITIVE_INFINITY;
+        double deltaC = Double.POSITIVE_INFINITY;
+        if (dx != 0) {
+            nextC = ((c + (dx > 0 ? 1 : 0)) * cells.cellWidth - x0) / dx;
+            deltaC = cells.cellWidth / Math.abs(dx);
+        }
+        double nextR = Double.POSITIVE_INFINITY;
+        double deltaR = Double.POSITIVE_INFINITY;
+        if (dy != 0) {
+            nextR = ((r + (dy > 0 ? 1 : 0)) * cells.cellHeight - y0) / dy;
+            deltaR = cells.cellHeight / Math.abs(dy);
+        }
+
+        visit(c, r, hits);
+        while (c != endC || r != endR) {
+            if (r == endR || (c != endC && nextC < nextR)) {
+                c += stepC;
+                nextC += deltaC;
+            } else {
+                r += stepR;
+                nextR += deltaR;
+            }
+            visit(c, r, hits);
+        }
+
+        if (hits.size > 1) {
+            Arrays.sort(hits.items, 0, hits.size);
+            int kept = 1;
+            for (int k = 1; k < hits.size; k++) {
+                if (hits.items[k] != hits.items[kept - 1])
+                    hits.items[kept++] = hits.items[k];
+            }
+            hits.size = kept;
+        }
+    }
+
+    /**
+     * Report the agents in the cell at column c, row r, wrapped
+     */
+    private void visit(int c, int r, SpatialGrid.Hits hits) {
+        int cell = cells.cell(c, r);
+        for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+            hits.add(entries[k]);
+        }
+    }
+}
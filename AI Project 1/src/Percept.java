@@ -51,6 +51,20 @@ public class Percept {
      * @param s how fast perceived agent is going
      */
     public Percept(ObjectCategory c, Color f, double dis, double a, double h, double s) {
+        set(c, f, dis, a, h, s);
+    }
+
+    /**
+     * Make this percept describe something else, so
+     * the object can be reused rather than reallocated
+     * 
+     * @param c what was seen
+     * @param dis how far perceived agent was
+     * @param a where perceived agent is relative to you
+     * @param h what direction perceived agent is facing
+     * @param s how fast perceived agent is going
+     */
+    void set(ObjectCategory c, Color f, double dis, double a, double h, double s) {
         objectCategory = c;
         color = f;
         distance = dis;
@@ -0,0 +1,131 @@
+import java.awt.Color;
+
+/**
+ * Description of which percepts an agent actually makes use of:
+ * for each Percept.ObjectCategory, whether the agent wants to
+ * see things of that kind at all, how far away it cares about
+ * them, and optionally the one color it cares about.
+ * The world consults an agent's filter while sensing, so
+ * percepts the agent would only ignore are never computed.
+ *
+ * A filter must never leave out anything the agent's
+ * deliberation could respond to; when in doubt, want more.
+ *
+ * @version 1.0
+ */
+public class PerceptFilter {
+
+    /** Filter that passes every percept */
+    static final PerceptFilter EVERYTHING = new PerceptFilter().wantAll();
+
+    /** Furthest distance wanted for each category, by ordinal; negative if unwanted */
+    private final double[] range;
+    /** Only color wanted for each category, by ordinal; null if any color will do */
+    private final Color[] color;
+
+    /**
+     * Constructor for a filter that wants nothing
+     */
+    public PerceptFilter() {
+        int n = Percept.ObjectCategory.values().length;
+        range = new double[n];
+        color = new Color[n];
+        clear();
+    }
+
+    /**
+     * Stop wanting anything, so the filter can be set up again
+     *
+     * @return this filter
+     */
+    public PerceptFilter clear() {
+        for (int i = 0; i < range.length; i++) {
+            range[i] = -1;
+            color[i] = null;
+        }
+        return this;
+    }
+
+    /**
+     * Want everything, at any distance and of any color
+     *
+     * @return this filter
+     */
+    public PerceptFilter wantAll() {
+        for (int i = 0; i < range.length; i++) {
+            range[i] = Double.POSITIVE_INFINITY;
+            color[i] = null;
+        }
+        return this;
+    }
+
+    /**
+     * Want things of category c at any distance and of any color
+     *
+     * @param c kind of thing
+     * @return this filter
+     */
+    public PerceptFilter want(Percept.ObjectCategory c) {
+        return want(c, Double.POSITIVE_INFINITY, null);
+    }
+
+    /**
+     * Want things of category c up to distance r, of any color
+     *
+     * @param c kind of thing
+     * @param r furthest distance that matters, inclusive
+     * @return this filter
+     */
+    public PerceptFilter want(Percept.ObjectCategory c, double r) {
+        return want(c, r, null);
+    }
+
+    /**
+     * Want things of category c up to distance r, of color f only
+     *
+     * @param c kind of thing
+     * @param r furthest distance that matters, inclusive
+     * @param f color that matters (compared by RGB value), or null for any
+     * @return this filter
+     */
+    public PerceptFilter want(Percept.ObjectCategory c, double r, Color f) {
+        range[c.ordinal()] = r;
+        color[c.ordinal()] = f;
+        return this;
+    }
+
+    /**
+     * @param c kind of thing
+     * @return furthest distance wanted for things of that kind,
+     *         or a negative number if they are not wanted at all
+     */
+    public double range(Percept.ObjectCategory c) {
+        return range[c.ordinal()];
+    }
+
+    /**
+     * @return furthest distance wanted for anything
+     */
+    public double maxRange() {
+        double r = -1;
+        for (double x: range) {
+            r = Math.max(r, x);
+        }
+        return r;
+    }
+
+    /**
+     * Is a thing of category c and color f of any interest,
+     * before taking distance into account?
+     *
+     * @param c kind of thing
+     * @param f its color
+     * @return true if it passes the category and color tests
+     */
+    public boolean wants(Percept.ObjectCategory c, Color f) {
+        int i = c.ordinal();
+        if (range[i] < 0)
+            return false;
+        return color[i] == null || (f != null && f.getRGB() == color[i].getRGB());
+    }
+}
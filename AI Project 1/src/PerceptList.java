@@ -0,0 +1,158 @@
+import java.awt.Color;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Reusable list of percepts handed to an agent's deliberation.
+ * The world keeps one of these per thread and refills it for each
+ * agent that thinks, recycling the Percept objects from earlier
+ * agents and earlier steps, so sensing does not allocate once
+ * the list has grown to its working size.
+ *
+ * Besides the list of everything seen, in the order the world
+ * sensed it, the list offers views of just the percepts in each
+ * Percept.ObjectCategory (lights(), boids() and so on), kept up
+ * as percepts are added, so an agent that only cares about one
+ * kind of thing can skip everything else.  Each view keeps the
+ * order of the full list.
+ *
+ * The list is read-only as far as agents are concerned, and
+ * its contents are only good until the agent's deliberate method
+ * returns: an agent that wants to remember a percept for later
+ * has to copy it.
+ *
+ * @version 1.0
+ */
+public class PerceptList extends AbstractList<Percept> implements RandomAccess {
+
+    /** Percept objects owned by the list, valid up to size */
+    private Percept[] items;
+    /** How many percepts are in the list right now */
+    private int size;
+    /** View of each category's percepts, by ordinal of the category */
+    private Category[] byCategory;
+
+    /**
+     * Read-only view of the percepts in a single category
+     */
+    class Category extends AbstractList<Percept> implements RandomAccess {
+        /** Positions in the full list of this category's percepts */
+        private int[] at = new int[16];
+        /** How many entries of at are valid */
+        private int count = 0;
+
+        @Override
+        public Percept get(int i) {
+            if (i < 0 || i >= count)
+                throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + count);
+            return items[at[i]];
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+
+    /**
+     * Constructor for an empty list
+     */
+    public PerceptList() {
+        items = new Percept[16];
+        size = 0;
+        Percept.ObjectCategory[] categories = Percept.ObjectCategory.values();
+        byCategory = new Category[categories.length];
+        for (int i = 0; i < categories.length; i++) {
+            byCategory[i] = new Category();
+        }
+    }
+
+    @Override
+    public Percept get(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        return items[i];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Empty the list, keeping its percept objects for reuse
+     */
+    @Override
+    public void clear() {
+        size = 0;
+        for (Category v: byCategory) {
+            v.count = 0;
+        }
+    }
+
+    /**
+     * @param c kind of thing
+     * @return view of the percepts of things of that kind
+     */
+    public List<Percept> category(Percept.ObjectCategory c) {
+        return byCategory[c.ordinal()];
+    }
+
+    /**
+     * @return view of the percepts of light sources
+     */
+    public List<Percept> lights() {
+        return category(Percept.ObjectCategory.LIGHT);
+    }
+
+    /**
+     * @return view of the percepts of peaceful creatures
+     */
+    public List<Percept> boids() {
+        return category(Percept.ObjectCategory.BOID);
+    }
+
+    /**
+     * @return view of the percepts of aggressive creatures
+     */
+    public List<Percept> predators() {
+        return category(Percept.ObjectCategory.PREDATOR);
+    }
+
+    /**
+     * @return view of the percepts of inert objects
+     */
+    public List<Percept> obstacles() {
+        return category(Percept.ObjectCategory.OBSTACLE);
+    }
+
+    /**
+     * Add a percept to the end of the list, reusing an old one if possible
+     *
+     * @param c what was seen
+     * @param f what color it had
+     * @param dis how far perceived agent was
+     * @param a where perceived agent is relative to you
+     * @param h what direction perceived agent is facing
+     * @param s how fast perceived agent is going
+     */
+    void add(Percept.ObjectCategory c, Color f, double dis, double a, double h, double s) {
+        if (size == items.length)
+            items = Arrays.copyOf(items, 2 * size);
+        Percept p = items[size];
+        if (p == null) {
+            items[size] = new Percept(c, f, dis, a, h, s);
+        } else {
+            p.set(c, f, dis, a, h, s);
+        }
+        if (c != null) {
+            Category v = byCategory[c.ordinal()];
+            if (v.count == v.at.length)
+                v.at = Arrays.copyOf(v.at, 2 * v.count);
+            v.at[v.count++] = size;
+        }
+        size++;
+    }
+}
@@ -1,7 +1,5 @@
 import java.awt.Color;
 import java.awt.Graphics;
-import java.io.BufferedWriter;
-import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -96,17 +94,14 @@ public class ReactiveGrazer extends Follower {
      * Output an XML element describing the current state of
      * this grazer.
      * 
-     * @param out an open file to write to, wrapped in BufferedWriter 
-     *            convenience class
+     * @param out log text being built up
      */
-    public void log(BufferedWriter out) 
-    throws IOException {
-        out.write("   <" + XML_NAME + " " + ID_PARAM + OPEN + Integer.toString(id) + CLOSE +
-                THRESHOLD_PARAM + OPEN + Double.toString(threshold) + CLOSE +
-        "\n     ");
+    public void log(LogEncoder out) {
+        out.write("   <" + XML_NAME + " ").attribute(ID_PARAM, id)
+                .attribute(THRESHOLD_PARAM, threshold).write("\n     ");
         form.log(out);
         out.write("    ");
-        status.log(out);
+        logStatus(out);
         out.write("    />\n");
     }
 
@@ -225,9 +220,9 @@ public class ReactiveGrazer extends Follower {
      * Specialized drawing method in case you want debugging help
      */
     @Override
-    public void draw(Graphics g) {
+    public void draw(Graphics g, double x, double y, double heading, Color color) {
         // TBC: Debug visualization here
-        super.draw(g);
+        super.draw(g, x, y, heading, color);
     }
     
     /**
@@ -290,4 +285,17 @@ public class ReactiveGrazer extends Follower {
             steerTo(reactiveLoc);
         }
     }
+
+    /**
+     * Besides lights, this grazer will keep heading for anything
+     * at all that is dead ahead, and notices when anything is within
+     * its threshold, so it has to see everything
+     * 
+     * @return filter passing all percepts
+     */
+    @Override
+    public PerceptFilter interests() {
+        return PerceptFilter.EVERYTHING;
+    }
+
 }
@@ -1,7 +1,5 @@
 import java.awt.Color;
 import java.awt.Graphics;
-import java.io.BufferedWriter;
-import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -65,16 +63,13 @@ public class ReactivePredator extends Follower {
      * Output an XML element describing the current state of
      * this follower.
      * 
-     * @param out an open file to write to, wrapped in BufferedWriter 
-     *            convenience class
+     * @param out log text being built up
      */
-    public void log(BufferedWriter out) 
-    throws IOException {
-        out.write("   <" + XML_NAME + " " + ID_PARAM + OPEN + Integer.toString(id) + CLOSE +
-           "\n     ");
+    public void log(LogEncoder out) {
+        out.write("   <" + XML_NAME + " ").attribute(ID_PARAM, id).write("\n     ");
         form.log(out);
         out.write("    ");
-        status.log(out);
+        logStatus(out);
         out.write("    />\n");
     }
 
@@ -140,9 +135,9 @@ public class ReactivePredator extends Follower {
      * Specialized drawing method in case you want debugging help
      */
     @Override
-    public void draw(Graphics g) {
+    public void draw(Graphics g, double x, double y, double heading, Color color) {
         // TBC: Debug visualization here
-        super.draw(g);
+        super.draw(g, x, y, heading, color);
     }
     
     /**
@@ -182,5 +177,28 @@ public class ReactivePredator extends Follower {
             steerTo(closestSeen);
         }
     }
-    
+
+    /**
+     * Only boids matter to this predator, so deliberate over those alone.
+     * 
+     * @param ps A description of everything the agent can see
+     */
+    @Override
+    public void deliberate(PerceptList ps) {
+        deliberate(ps.boids());
+    }
+
+    /** Percepts of interest to a predator */
+    static final PerceptFilter BOIDS = new PerceptFilter().want(Percept.ObjectCategory.BOID);
+
+    /**
+     * A predator only ever goes after boids
+     * 
+     * @return filter passing boids only
+     */
+    @Override
+    public PerceptFilter interests() {
+        return BOIDS;
+    }
+
 }
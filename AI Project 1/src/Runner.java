@@ -1,7 +1,5 @@
 import java.awt.Color;
 import java.awt.Graphics;
-import java.io.BufferedWriter;
-import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -83,16 +81,13 @@ public class Runner extends Agent {
      * Output an XML element describing the current state of
      * this runner.
      * 
-     * @param out an open file to write to, wrapped in BufferedWriter 
-     *            convenience class
+     * @param out log text being built up
      */
-    public void log(BufferedWriter out) 
-    throws IOException {
-        out.write("   <" + XML_NAME + " " + ID_PARAM + OPEN + Integer.toString(id) + CLOSE +
-        "\n     ");
+    public void log(LogEncoder out) {
+        out.write("   <" + XML_NAME + " ").attribute(ID_PARAM, id).write("\n     ");
         form.log(out);
         out.write("    ");
-        status.log(out);
+        logStatus(out);
         out.write("    />\n");
     }
 
@@ -100,39 +95,49 @@ public class Runner extends Agent {
      * Draw a runner as a triangle pointing in the direction
      * of the agent's heading.
      * @param g object to control drawing mechanism 
-     * @see Agent#draw(java.awt.Graphics)
+     * @see Agent#draw(java.awt.Graphics, double, double, double, java.awt.Color)
      */
     @Override
-    public void draw(Graphics g) {
+    public void draw(Graphics g, double x, double y, double heading, Color color) {
         int[] xpoints = new int[4];
         int[] ypoints = new int[4];
 
-        double baseAngle = status.heading + Math.PI / 2;
+        double baseAngle = heading + Math.PI / 2;
         double s = form.size;
 
         int baseOffsetX = (int) Math.round(2 * s * Math.cos(baseAngle) / 3);
         int baseOffsetY = (int) Math.round(2 * s * Math.sin(baseAngle) / 3);
 
-        int x0 = ((int) Math.round(status.locX - baseOffsetX / 2
-                - s * Math.cos(status.heading) / 3));
-        int y0 = ((int) Math.round(status.locY - baseOffsetY / 2
-                - s * Math.sin(status.heading) / 3));
+        int x0 = ((int) Math.round(x - baseOffsetX / 2
+                - s * Math.cos(heading) / 3));
+        int y0 = ((int) Math.round(y - baseOffsetY / 2
+                - s * Math.sin(heading) / 3));
 
         xpoints[0] = x0;
         xpoints[1] = x0 + baseOffsetX;
-        xpoints[2] = x0 + baseOffsetX / 2 + (int) Math.round(s * Math.cos(status.heading));
-        xpoints[3] = x0 + (int) Math.round(s * Math.cos(status.heading));
+        xpoints[2] = x0 + baseOffsetX / 2 + (int) Math.round(s * Math.cos(heading));
+        xpoints[3] = x0 + (int) Math.round(s * Math.cos(heading));
 
         ypoints[0] = y0;
         ypoints[1] = y0 + baseOffsetY;
-        ypoints[2] = y0 + baseOffsetY / 2 + (int) Math.round(s * Math.sin(status.heading));
-        ypoints[3] = y0 + (int) Math.round(s * Math.sin(status.heading));
+        ypoints[2] = y0 + baseOffsetY / 2 + (int) Math.round(s * Math.sin(heading));
+        ypoints[3] = y0 + (int) Math.round(s * Math.sin(heading));
 
-        g.setColor(form.color);
+        g.setColor(color);
         myWorld.fillPolygon(xpoints, ypoints, 3, g);
     }
 
 
+    /**
+     * A runner just keeps going, whatever it sees
+     * 
+     * @return false
+     */
+    @Override
+    public boolean perceives() {
+        return false;
+    }
+
     /**
      * Do nothing
      * 
@@ -0,0 +1,95 @@
+/**
+ * Scheduler runs a world's simulation steps separately from
+ * drawing it.  Steps run on the thread that calls run, one
+ * every delay milliseconds as given by the world (or as fast
+ * as possible when the delay is zero).  A separate render thread
+ * asks for a snapshot of the world at most fps times a second; the
+ * next step to end takes it (see World.publishFrame), copying only
+ * where each agent is, which way it faces and its color, and the
+ * render thread then draws the frame from that snapshot (see
+ * World.renderFrame) while the following steps run.  If the
+ * simulation steps faster than the display can keep up with, the
+ * steps in between frames are simply never drawn, and if it is
+ * not stepping, nothing is drawn at all.
+ *
+ * World.paint only shows the last frame drawn, so the display
+ * never waits for a step, and each frame shows the world as it
+ * was at the end of some step.
+ *
+ * @version 1.0
+ */
+public class Scheduler {
+
+    /** The world being simulated */
+    private final World world;
+
+    /** Set when the simulation is over and the renderer should stop */
+    private volatile boolean finished = false;
+
+    /**
+     * Constructor
+     *
+     * @param w world to simulate; its delay sets the target step rate
+     *          and its fps sets the cap on the frame rate
+     */
+    public Scheduler(World w) {
+        world = w;
+    }
+
+    /**
+     * Thread that draws the world at a capped frame rate,
+     * from the snapshot the steps publish when it asks
+     */
+    class Renderer extends Thread {
+        Renderer() {
+            super("Renderer");
+            setDaemon(true);
+        }
+
+        public void run() {
+            long period = 1000 / world.getFps();
+            while (!finished) {
+                world.requestFrame();
+                try {
+                    Thread.sleep(period);
+                } catch (InterruptedException e) {
+                }
+                world.renderFrame();
+            }
+        }
+    }
+
+    /**
+     * Step the world for as long as it is runnable, keeping
+     * to the world's delay between the starts of successive steps.
+     * If a step runs late, the schedule starts over from then
+     * rather than rushing to catch up.
+     */
+    public void run() {
+        world.setAutoRepaint(false);
+        Renderer renderer = new Renderer();
+        renderer.start();
+
+        long next = System.nanoTime();
+        while (world.isRunnable()) {
+            world.stepWorld();
+            long period = world.getDelay() * 1000000L;
+            if (period > 0) {
+                next += period;
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    try {
+                        Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+                    } catch (InterruptedException e) {
+                    }
+                } else {
+                    next = System.nanoTime();
+                }
+            }
+        }
+
+        finished = true;
+        world.setAutoRepaint(true);
+        world.publishFrame();
+    }
+}
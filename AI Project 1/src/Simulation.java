@@ -3,6 +3,8 @@ import java.awt.event.*;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
@@ -74,7 +76,9 @@ public class Simulation extends Frame {
      * 
      * @param args array of strings specified on the 
      *             command line; should specify a
-     *             single XML specification of a world
+     *             single XML specification of a world,
+     *             optionally followed, for a log, by the
+     *             step to start showing it at
      */
     public static void main(String[] args) {
         Simulation s = new Simulation();
@@ -82,8 +86,8 @@ public class Simulation extends Frame {
         // Clean up if control-C is pressed
         Runtime.getRuntime().addShutdownHook(s.new Cleanup());
         
-        if (args.length != 1) {
-            System.err.println("Usage error: run as <program> <specfile> for a single XML world spec.");
+        if (args.length != 1 && args.length != 2) {
+            System.err.println("Usage error: run as <program> <specfile> [<step>] for a single XML world spec.");
         }
         try {
             // Set up SAX reader, which processes XML objects as file is read.
@@ -92,8 +96,16 @@ public class Simulation extends Frame {
             xr.setContentHandler(handler);
             xr.setErrorHandler(handler);
             
-            // Parse the XML
-            FileReader r = new FileReader(args[0]);
+            // Parse the XML, from the keyframe before the step
+            // to start at if there is one (see LogIndex)
+            Reader r;
+            if (args.length > 1) {
+                int step = Integer.parseInt(args[1]);
+                handler.setSkipUntil(step);
+                r = new InputStreamReader(LogIndex.open(args[0], step));
+            } else {
+                r = new FileReader(args[0]);
+            }
             xr.parse(new InputSource(r));
 
             // Show the simulation on screen, if you haven't already
@@ -106,14 +118,10 @@ public class Simulation extends Frame {
             if (s.w != null) 
                 s.w.startLogging();
 
-            // Run any simulation indefinitely
-            while (s.w != null && s.w.isRunnable()) {
-                s.w.stepWorld();
-                try {
-                    Thread.sleep(s.w.getDelay());
-                }
-                catch (InterruptedException e) {
-                }
+            // Run any simulation indefinitely, drawing it
+            // on a separate thread at a capped frame rate
+            if (s.w != null && s.w.isRunnable()) {
+                new Scheduler(s.w).run();
             }
             
             // Clean up if the world spec did not want a simulation
@@ -125,6 +133,8 @@ public class Simulation extends Frame {
             System.err.println(e.getMessage());
         } catch (IOException e) {
             System.err.println(e.getMessage());
+        } catch (NumberFormatException e) {
+            System.err.println("Usage error: step must be an integer, not " + args[1]);
         }
 
     }
@@ -1,6 +1,4 @@
 import java.awt.Color;
-import java.io.BufferedWriter;
-import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -71,16 +69,13 @@ public class SmartFollower extends Follower {
      * Output an XML element describing the current state of
      * the smart light follower.
      * 
-     * @param out an open file to write to, wrapped in BufferedWriter 
-     *            convenience class
+     * @param out log text being built up
      */
-    public void log(BufferedWriter out) 
-    throws IOException {
-        out.write("   <" + XML_NAME + " " + ID_PARAM + "=\"" + Integer.toString(id) +
-           "\n     ");
+    public void log(LogEncoder out) {
+        out.write("   <" + XML_NAME + " " + ID_PARAM + "=\"").number(id).write("\n     ");
         form.log(out);
         out.write("    ");
-        status.log(out);
+        logStatus(out);
         out.write("    />\n");
     }
     
@@ -160,7 +155,7 @@ public class SmartFollower extends Follower {
                     
             }
             todo.add(new Intention(Intention.ActionType.TURN, desiredAngle));
-            todo.add(new Intention(Intention.ActionType.CHANGE_SPEED, desiredForwardV - status.forwardV));
+            todo.add(new Intention(Intention.ActionType.CHANGE_SPEED, desiredForwardV - getForwardV()));
         }
     }
 }
@@ -0,0 +1,198 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A uniform grid laid over the torus world, used to find
+ * the agents near a given point without looking at every
+ * agent in the world.
+ *
+ * The grid is rebuilt from a list of agents whenever their
+ * locations may have changed: for agents that move, once per step.
+ * Each agent is filed in the single cell that contains its
+ * (wrapped) location.  A query visits every cell that overlaps
+ * the square of side 2*radius around the query point, wrapping
+ * around the edges of the world the same way
+ * World.displacementOnCircle does, and reports the agents it
+ * finds there.  Callers still have to check the exact distance:
+ * the grid only guarantees that nobody within the radius is missed.
+ *
+ * Agents are reported by their position in the list the grid
+ * was built from, in increasing order, so callers see them in
+ * the same order as a scan of the full list would.
+ *
+ * @version 1.0
+ */
+public class SpatialGrid {
+
+    /**
+     * Growable buffer of agent positions in the list,
+     * filled in by queries.  Reused from query to query
+     * so that searching the grid does not allocate.
+     */
+    static class Hits {
+        /** Positions found so far, valid up to size */
+        int[] items = new int[64];
+        /** How many entries of items are valid */
+        int size = 0;
+
+        /**
+         * Record another hit
+         * @param i position of agent in the indexed list
+         */
+        void add(int i) {
+            if (size == items.length)
+                items = Arrays.copyOf(items, 2 * size);
+            items[size++] = i;
+        }
+    }
+
+    /** Cells the world is cut into */
+    private final TorusCells cells;
+
+    /** The agents indexed, in list order */
+    private Agent[] members = new Agent[0];
+    /** How many entries of members are valid */
+    private int count = 0;
+    /** For each cell c, entries[cellStart[c]] to entries[cellStart[c+1]-1] are its agents */
+    private final int[] cellStart;
+    /** Agent positions grouped by cell, increasing within each cell */
+    private int[] entries = new int[0];
+    /** Cell of each agent, scratch space for rebuilding */
+    private int[] cellOf = new int[0];
+
+    /**
+     * Constructor
+     *
+     * @param width horizontal extent of the world
+     * @param height vertical extent of the world
+     * @param cellSize smallest side length for a cell, in pixels
+     */
+    public SpatialGrid(int width, int height, double cellSize) {
+        cells = new TorusCells(width, height, cellSize);
+        cellStart = new int[cells.count() + 1];
+    }
+
+    /**
+     * @param w horizontal extent of the world
+     * @param h vertical extent of the world
+     * @return true if the grid was laid out for a world of this size
+     */
+    public boolean covers(int w, int h) {
+        return cells.covers(w, h);
+    }
+
+    /**
+     * @return number of agents in the index
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param i position of agent in the indexed list
+     * @return the agent at that position
+     */
+    public Agent get(int i) {
+        return members[i];
+    }
+
+    /**
+     * Index the current locations of the passed agents,
+     * throwing away whatever was indexed before.
+     * Uses a counting sort so each cell's agents stay in list order.
+     *
+     * @param agents everything that lives in the world
+     */
+    public void rebuild(List<Agent> agents) {
+        count = agents.size();
+        if (members.length < count) {
+            members = new Agent[count];
+            entries = new int[count];
+            cellOf = new int[count];
+        }
+        Arrays.fill(cellStart, 0);
+
+        int i = 0;
+        for (Agent a: agents) {
+            int c = cells.cellAt(a.getLocX(), a.getLocY());
+            members[i] = a;
+            cellOf[i] = c;
+            cellStart[c + 1]++;
+            i++;
+        }
+        Arrays.fill(members, count, members.length, null);
+        fillCells();
+    }
+
+    /**
+     * Finish a counting sort: turn the per-cell counts in cellStart
+     * into offsets and file each agent under its cell.
+     */
+    private void fillCells() {
+        for (int c = 0; c < cells.count(); c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] next = Arrays.copyOf(cellStart, cells.count());
+        for (int i = 0; i < count; i++) {
+            entries[next[cellOf[i]]++] = i;
+        }
+    }
+
+    /**
+     * Index the current locations of some of the agents in a packed
+     * store, reading locations straight from its arrays.  Positions
+     * in the index are positions in slots.
+     *
+     * @param store packed attributes of everything that lives in the world
+     * @param slots store slots of the agents to index, in increasing order
+     * @param n how many entries of slots are valid
+     */
+    public void rebuild(AgentStore store, int[] slots, int n) {
+        count = n;
+        if (members.length < count) {
+            members = new Agent[count];
+            entries = new int[count];
+            cellOf = new int[count];
+        }
+        Arrays.fill(cellStart, 0);
+
+        for (int i = 0; i < count; i++) {
+            int s = slots[i];
+            int c = cells.cellAt(store.locX[s], store.locY[s]);
+            members[i] = store.get(s);
+            cellOf[i] = c;
+            cellStart[c + 1]++;
+        }
+        Arrays.fill(members, count, members.length, null);
+        fillCells();
+    }
+
+    /**
+     * Find every agent that might lie within radius of (x, y),
+     * measuring distance on the torus.
+     *
+     * @param x horizontal coordinate of query point
+     * @param y vertical coordinate of query point
+     * @param radius how far away to look, in pixels
+     * @param hits buffer to fill; cleared first, sorted on return
+     */
+    public void near(double x, double y, double radius, Hits hits) {
+        hits.size = 0;
+
+        int c0 = cells.columnOf(x - radius);
+        int c1 = cells.lastColumn(c0, x + radius);
+        int r0 = cells.rowOf(y - radius);
+        int r1 = cells.lastRow(r0, y + radius);
+
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = cells.cell(c, r);
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    hits.add(entries[k]);
+                }
+            }
+        }
+
+        Arrays.sort(hits.items, 0, hits.size);
+    }
+}
@@ -1,7 +1,5 @@
 import java.awt.Color;
 import java.awt.Graphics;
-import java.io.BufferedWriter;
-import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -88,17 +86,14 @@ public class StateGrazer extends Follower {
      * Output an XML element describing the current state of
      * this grazer.
      * 
-     * @param out an open file to write to, wrapped in BufferedWriter 
-     *            convenience class
+     * @param out log text being built up
      */
-    public void log(BufferedWriter out) 
-    throws IOException {
-        out.write("   <" + XML_NAME + " " + ID_PARAM + OPEN + Integer.toString(id) + CLOSE +
-                THRESHOLD_PARAM + OPEN + Double.toString(threshold) + CLOSE +
-        "\n     ");
+    public void log(LogEncoder out) {
+        out.write("   <" + XML_NAME + " ").attribute(ID_PARAM, id)
+                .attribute(THRESHOLD_PARAM, threshold).write("\n     ");
         form.log(out);
         out.write("    ");
-        status.log(out);
+        logStatus(out);
         out.write("    />\n");
     }
     
@@ -130,6 +125,9 @@ public class StateGrazer extends Follower {
     
     protected Percept colorTarget(List<Percept> ps) {
         //Figure out which boid is the closest, then go after it.
+    	if (myWorld.knowsLights(this)) {
+    		return myWorld.nearestLight(this, currentColor);
+    	}
     	
     	int i = 0;
     	Percept target = null; // this is the best target to go after
@@ -152,6 +150,12 @@ public class StateGrazer extends Follower {
     }
     protected Percept bestTarget(List<Percept> ps) {
        
+    	if (myWorld.knowsLights(this)) {
+    		Percept target = myWorld.nearestLight(this, null);
+    		if (target != null)
+    			currentColor = target.getColor();
+    		return target;
+    	}
     	
     	int i = 0;
     	Percept target = null; // this is the best target to go after
@@ -166,7 +170,9 @@ public class StateGrazer extends Follower {
     		i++;
     		
     	}
-    	currentColor = target.getColor();
+    	// with limited sensing there may be no light in sight yet
+    	if (target != null)
+    		currentColor = target.getColor();
     	return target;
     	
     }
@@ -175,9 +181,9 @@ public class StateGrazer extends Follower {
      * Specialized drawing method in case you want debugging help
      */
     @Override
-    public void draw(Graphics g) {
+    public void draw(Graphics g, double x, double y, double heading, Color color) {
         // TBC: Debug visualization here
-        super.draw(g);
+        super.draw(g, x, y, heading, color);
     }
     
     /**
@@ -214,7 +220,8 @@ public class StateGrazer extends Follower {
     	
     	if(!hasStarted) {
     		goalLight = bestTarget(ps);
-    		hasStarted = true;
+    		// no color to look for until some light has been seen
+    		hasStarted = goalLight != null;
     	}
     	else {
     		goalLight = colorTarget(ps);
@@ -224,6 +231,7 @@ public class StateGrazer extends Follower {
         
         todo = new LinkedList<Intention>();
 
+        // with no light in sight, nothing to do: keep heading as before
         if (goalLight != null) {
             steerTo(goalLight);
             if(goalLight.getDistance() <= threshold) {
@@ -245,6 +253,36 @@ public class StateGrazer extends Follower {
         
         
 
+    }
+
+    /**
+     * Only lights matter to this grazer, so deliberate over those alone.
+     * 
+     * @param ps A description of everything the agent can see
+     */
+    @Override
+    public void deliberate(PerceptList ps) {
+        deliberate(ps.lights());
+    }
+
+    /** Percepts of interest to this grazer right now */
+    private final PerceptFilter interests = new PerceptFilter();
+
+    /**
+     * A grazer only ever goes after lights: at first the closest
+     * light of any color, and after that only lights of the color
+     * it is looking for.  If the world can say which light
+     * is nearest, the grazer need not look at all.
+     * 
+     * @return filter passing the lights the grazer might choose
+     */
+    @Override
+    public PerceptFilter interests() {
+        interests.clear();
+        if (myWorld.knowsLights(this))
+            return interests;
+        return interests.want(Percept.ObjectCategory.LIGHT, 
+                Double.POSITIVE_INFINITY, hasStarted ? currentColor : null);
     }
 
 }
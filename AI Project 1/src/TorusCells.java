@@ -0,0 +1,159 @@
+/**
+ * The cells of a uniform grid laid over the torus world, for
+ * the indexes that cut the world up this way to look things up
+ * by place.  It only knows where the cells are; what is kept in
+ * them is up to each index.
+ *
+ * Cells are numbered row by row, from 0 to count()-1.  Column and
+ * row numbers that fall off the grid wrap around the edges of the
+ * world the same way World.clampToCircle does, so a range of cells
+ * around a point can be walked without caring where the edges are.
+ *
+ * @version 1.0
+ */
+public class TorusCells {
+
+    /** Horizontal extent of the world */
+    final int width;
+    /** Vertical extent of the world */
+    final int height;
+    /** Number of cells across */
+    final int cols;
+    /** Number of cells down */
+    final int rows;
+    /** Width of a single cell, at least the requested cell size */
+    final double cellWidth;
+    /** Height of a single cell, at least the requested cell size */
+    final double cellHeight;
+
+    /**
+     * Constructor
+     *
+     * @param width horizontal extent of the world
+     * @param height vertical extent of the world
+     * @param cellSize smallest side length for a cell, in pixels
+     */
+    public TorusCells(int width, int height, double cellSize) {
+        this.width = width;
+        this.height = height;
+        cols = Math.max(1, (int) Math.floor(width / cellSize));
+        rows = Math.max(1, (int) Math.floor(height / cellSize));
+        cellWidth = (double) width / cols;
+        cellHeight = (double) height / rows;
+    }
+
+    /**
+     * @param w horizontal extent of the world
+     * @param h vertical extent of the world
+     * @return true if the cells were laid out for a world of this size
+     */
+    public boolean covers(int w, int h) {
+        return width == w && height == h;
+    }
+
+    /**
+     * @return number of cells in the grid
+     */
+    int count() {
+        return cols * rows;
+    }
+
+    /**
+     * Which column holds horizontal coordinate x, wrapped
+     */
+    int column(double x) {
+        int c = (int) (World.clampToCircle(x, width) / cellWidth);
+        return c < cols ? c : cols - 1;
+    }
+
+    /**
+     * Which row holds vertical coordinate y, wrapped
+     */
+    int row(double y) {
+        int r = (int) (World.clampToCircle(y, height) / cellHeight);
+        return r < rows ? r : rows - 1;
+    }
+
+    /**
+     * Cell at column c, row r, wrapped
+     */
+    int cell(int c, int r) {
+        return World.clampToCircle(r, rows) * cols + World.clampToCircle(c, cols);
+    }
+
+    /**
+     * Cell containing the point (x, y), wrapped
+     */
+    int cellAt(double x, double y) {
+        return row(y) * cols + column(x);
+    }
+
+    /**
+     * Column number of horizontal coordinate x, counting on past
+     * the edges of the grid rather than wrapping
+     */
+    int columnOf(double x) {
+        return (int) Math.floor(x / cellWidth);
+    }
+
+    /**
+     * Row number of vertical coordinate y, counting on past
+     * the edges of the grid rather than wrapping
+     */
+    int rowOf(double y) {
+        return (int) Math.floor(y / cellHeight);
+    }
+
+    /**
+     * Last column of a range starting at column first and
+     * reaching to coordinate x, cut short so that no column
+     * of the grid is visited twice
+     */
+    int lastColumn(int first, double x) {
+        return Math.min(columnOf(x), first + cols - 1);
+    }
+
+    /**
+     * Last row of a range starting at row first and
+     * reaching to coordinate y, cut short so that no row
+     * of the grid is visited twice
+     */
+    int lastRow(int first, double y) {
+        return Math.min(rowOf(y), first + rows - 1);
+    }
+
+    /**
+     * Horizontal coordinate of the left edge of a cell
+     */
+    double left(int cell) {
+        return (cell % cols) * cellWidth;
+    }
+
+    /**
+     * Vertical coordinate of the top edge of a cell
+     */
+    double top(int cell) {
+        return (cell / cols) * cellHeight;
+    }
+
+    /**
+     * Horizontal coordinate of the middle of a cell
+     */
+    double centerX(int cell) {
+        return (cell % cols + 0.5) * cellWidth;
+    }
+
+    /**
+     * Vertical coordinate of the middle of a cell
+     */
+    double centerY(int cell) {
+        return (cell / cols + 0.5) * cellHeight;
+    }
+
+    /**
+     * Neighbor of a cell, wrapping around the edges of the world
+     */
+    int neighbor(int cell, int dc, int dr) {
+        return cell(cell % cols + dc, cell / cols + dr);
+    }
+}
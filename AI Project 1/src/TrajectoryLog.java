@@ -0,0 +1,444 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact binary form of the XML log, for long runs with
+ * many agents.  It records the same history as the XML: the
+ * size of the world, every agent in complete detail at the
+ * start, then for each step the position, heading and speed
+ * of the agents, and which agents died.  TrajectoryLog writes
+ * it, and turns it back into exactly the XML World would have
+ * written (see LogConverter).
+ *
+ * The log is a sequence of records, each a tag byte and its
+ * fields.  Integers are written as variable-length quantities,
+ * seven bits to the byte, low bits first, with the sign folded
+ * into the lowest bit where they can be negative.  In a step,
+ * each agent's id is given as the difference from the id before
+ * it, and each of its four values as the difference between the
+ * bits of the double and the bits of the value logged for that
+ * agent last time, so agents that stand still cost a byte a value.
+ * Agents in complete detail are kept as their XML text.
+ *
+ * Records:
+ *   BEGIN "LKB" version - start of a log, or of a part appended
+ *       to it; forget all earlier values
+ *   WORLD width height - size of the world
+ *   STATE step { length+1 text } 0 - agents in complete detail
+ *   STEP step { id+1 x y heading speed } 0 - dynamic parameters
+ *   KILL id - an agent died
+ *   END - end of the log
+ * where step is the difference from the step before, and
+ * heading is in degrees, as in the XML.
+ *
+ * Bytes are carried as chars 0 to 255 in a LogEncoder, so
+ * they can share LogWriter with the XML text; the file has
+ * to be written in CHARSET, which maps those chars to bytes
+ * one for one.
+ *
+ * @version 1.0
+ */
+public class TrajectoryLog {
+
+    /** End of log file names that ask for the binary form */
+    static final String EXTENSION = ".bin";
+
+    /** Character set that writes chars 0 to 255 as single bytes */
+    static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+
+    /** Version of the format written */
+    static final int VERSION = 1;
+
+    /** Record tags */
+    static final char BEGIN = 'F';
+    static final char WORLD = 'W';
+    static final char STATE = 'S';
+    static final char STEP = 'U';
+    static final char KILL = 'K';
+    static final char END = 'E';
+
+    /** Bytes that follow BEGIN, making the start of the file read "FLKB" */
+    static final String MAGIC = "LKB";
+
+    /** Agents with ids from 0 up to this have their values logged as differences */
+    static final int TRACKED_IDS = 1 << 20;
+
+    /** Values per agent in a step record */
+    static final int VALUES = 4;
+
+    /** How much XML to build up before handing it on while decoding */
+    static final int DECODE_BATCH = 1 << 16;
+
+    /** Bits of the values last logged for each tracked id, VALUES to an id */
+    private long[] last = new long[VALUES * 64];
+    /** Step of the last STATE or STEP record */
+    private int lastStep;
+    /** Id of the last agent in the current STEP record */
+    private int lastId;
+
+    /**
+     * @param filename name of a log file
+     * @return true if the log should be written in the binary form
+     */
+    public static boolean isBinary(String filename) {
+        return filename != null && filename.endsWith(EXTENSION);
+    }
+
+    /**
+     * Start the log, or a part appended to it
+     *
+     * @param out log being written
+     */
+    public void begin(LogEncoder out) {
+        out.write(BEGIN).write(MAGIC);
+        unsigned(out, VERSION);
+        reset();
+    }
+
+    /**
+     * Forget all earlier values
+     */
+    private void reset() {
+        Arrays.fill(last, 0);
+        lastStep = 0;
+        lastId = 0;
+    }
+
+    /**
+     * Give the size of the world
+     *
+     * @param out log being written
+     * @param width horizontal extent of the world
+     * @param height vertical extent of the world
+     */
+    public void world(LogEncoder out, int width, int height) {
+        out.write(WORLD);
+        signed(out, width);
+        signed(out, height);
+    }
+
+    /**
+     * Give the passed agents in complete detail
+     *
+     * @param out log being written
+     * @param step current step of the simulation
+     * @param agents agents to describe
+     */
+    public void state(LogEncoder out, int step, List<Agent> agents) {
+        state(out, step);
+        LogEncoder text = new LogEncoder();
+        for (Agent a: agents) {
+            text.reset();
+            a.log(text);
+            description(out, text.toString());
+        }
+        endState(out);
+    }
+
+    /**
+     * Begin a record of agents in complete detail;
+     * follow with description for each, then endState
+     *
+     * @param out log being written
+     * @param step current step of the simulation
+     */
+    public void state(LogEncoder out, int step) {
+        out.write(STATE);
+        signed(out, step - lastStep);
+        lastStep = step;
+    }
+
+    /**
+     * Add an agent in complete detail to the current STATE record
+     *
+     * @param out log being written
+     * @param xml the agent's XML element, as Agent.log writes it
+     */
+    public void description(LogEncoder out, String xml) {
+        byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+        unsigned(out, bytes.length + 1);
+        for (byte b: bytes) {
+            out.write((char) (b & 0xFF));
+        }
+    }
+
+    /**
+     * End the current STATE record
+     *
+     * @param out log being written
+     */
+    public void endState(LogEncoder out) {
+        unsigned(out, 0);
+    }
+
+    /**
+     * Begin the record of a step; follow with update
+     * for each agent, then endStep
+     *
+     * @param out log being written
+     * @param step step the simulation has reached
+     */
+    public void step(LogEncoder out, int step) {
+        out.write(STEP);
+        signed(out, step - lastStep);
+        lastStep = step;
+        lastId = 0;
+    }
+
+    /**
+     * Add the dynamic parameters of an agent to the current step
+     *
+     * @param out log being written
+     * @param id identifier of the agent
+     * @param x horizontal coordinate of agent
+     * @param y vertical coordinate of agent
+     * @param degrees direction agent is facing, in degrees
+     * @param v rate of motion in the forward direction
+     */
+    public void update(LogEncoder out, int id, double x, double y, double degrees, double v) {
+        unsigned(out, zigzag(id - lastId) + 1);
+        lastId = id;
+        int at = slot(id);
+        value(out, at, x);
+        value(out, next(at, 1), y);
+        value(out, next(at, 2), degrees);
+        value(out, next(at, 3), v);
+    }
+
+    /**
+     * End the current step record
+     *
+     * @param out log being written
+     */
+    public void endStep(LogEncoder out) {
+        unsigned(out, 0);
+    }
+
+    /**
+     * Record that an agent died
+     *
+     * @param out log being written
+     * @param id identifier of the agent
+     */
+    public void kill(LogEncoder out, int id) {
+        out.write(KILL);
+        signed(out, id);
+    }
+
+    /**
+     * End the log
+     *
+     * @param out log being written
+     */
+    public void end(LogEncoder out) {
+        out.write(END);
+    }
+
+    /**
+     * Where the values for agent id are kept in last,
+     * making room if need be
+     *
+     * @return index of the first value, or -1 if id is not tracked
+     */
+    private int slot(int id) {
+        if (id < 0 || id >= TRACKED_IDS)
+            return -1;
+        if (VALUES * id >= last.length)
+            last = Arrays.copyOf(last, Math.max(VALUES * (id + 1), 2 * last.length));
+        return VALUES * id;
+    }
+
+    /**
+     * @return the slot k after at, -1 if at is untracked
+     */
+    private static int next(int at, int k) {
+        return at < 0 ? -1 : at + k;
+    }
+
+    /**
+     * @return the bits last logged in slot at, 0 if untracked
+     */
+    private long previous(int at) {
+        return at < 0 ? 0 : last[at];
+    }
+
+    /**
+     * Write v as the difference from the last value in slot at
+     */
+    private void value(LogEncoder out, int at, double v) {
+        long bits = Double.doubleToRawLongBits(v);
+        unsigned(out, zigzag(bits - previous(at)));
+        if (at >= 0)
+            last[at] = bits;
+    }
+
+    /**
+     * @return the bits last logged in the given value of agent id,
+     *         0 if there are none
+     */
+    long previous(int id, int value) {
+        return id < 0 || VALUES * id >= last.length ? 0 : last[VALUES * id + value];
+    }
+
+    /**
+     * Fold the sign of v into its lowest bit, so small
+     * magnitudes of either sign have few significant bits
+     */
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    /**
+     * Undo zigzag
+     */
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Write a signed integer
+     */
+    private static void signed(LogEncoder out, long v) {
+        unsigned(out, zigzag(v));
+    }
+
+    /**
+     * Write v, taken as unsigned, seven bits to the byte
+     */
+    private static void unsigned(LogEncoder out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.write((char) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((char) v);
+    }
+
+    /**
+     * Turn a binary log back into the XML World would have
+     * written for the same run, a record at a time.
+     *
+     * @param in binary log, preferably buffered
+     * @param xml where the XML text should go
+     * @throws IOException if the log cannot be read or is malformed,
+     *         or the text cannot be written
+     */
+    public static void toXml(InputStream in, Writer xml) throws IOException {
+        new TrajectoryLog().decode(in, xml);
+    }
+
+    /**
+     * Body of toXml, keeping the last values in this log
+     */
+    private void decode(InputStream in, Writer xml) throws IOException {
+        LogEncoder out = new LogEncoder();
+        int tag;
+        while ((tag = in.read()) >= 0) {
+            switch (tag) {
+            case BEGIN:
+                for (int i = 0; i < MAGIC.length(); i++) {
+                    if (readByte(in) != MAGIC.charAt(i))
+                        throw new IOException("Not a binary log");
+                }
+                int version = (int) readUnsigned(in);
+                if (version != VERSION)
+                    throw new IOException("Unsupported binary log version " + version);
+                reset();
+                break;
+            case WORLD:
+                int width = (int) readSigned(in);
+                int height = (int) readSigned(in);
+                World.logWorldStart(out, width, height);
+                break;
+            case STATE:
+                lastStep += (int) readSigned(in);
+                World.logStateStart(out, lastStep, true);
+                for (long n = readUnsigned(in); n != 0; n = readUnsigned(in)) {
+                    byte[] bytes = new byte[(int) n - 1];
+                    for (int i = 0; i < bytes.length; i++) {
+                        bytes[i] = (byte) readByte(in);
+                    }
+                    out.write(new String(bytes, StandardCharsets.UTF_8));
+                }
+                World.logStateEnd(out);
+                break;
+            case STEP:
+                lastStep += (int) readSigned(in);
+                lastId = 0;
+                World.logStateStart(out, lastStep, false);
+                for (long n = readUnsigned(in); n != 0; n = readUnsigned(in)) {
+                    int id = lastId + (int) unzigzag(n - 1);
+                    lastId = id;
+                    int at = slot(id);
+                    double x = readValue(in, at);
+                    double y = readValue(in, next(at, 1));
+                    double degrees = readValue(in, next(at, 2));
+                    double v = readValue(in, next(at, 3));
+                    Agent.logUpdate(out, id, x, y, degrees, v);
+                }
+                World.logStateEnd(out);
+                break;
+            case KILL:
+                World.logDeath(out, (int) readSigned(in));
+                break;
+            case END:
+                World.logWorldEnd(out);
+                break;
+            default:
+                throw new IOException("Unknown record " + tag + " in binary log");
+            }
+            if (out.size() >= DECODE_BATCH) {
+                out.writeTo(xml);
+                out.reset();
+            }
+        }
+        out.writeTo(xml);
+        xml.flush();
+    }
+
+    /**
+     * Read a value written by value, with the slot it was kept in
+     */
+    private double readValue(InputStream in, int at) throws IOException {
+        long bits = previous(at) + unzigzag(readUnsigned(in));
+        if (at >= 0)
+            last[at] = bits;
+        return Double.longBitsToDouble(bits);
+    }
+
+    /**
+     * Read a byte that must be there
+     */
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0)
+            throw new EOFException("Binary log ends in the middle of a record");
+        return b;
+    }
+
+    /**
+     * Read an integer written by unsigned
+     */
+    private static long readUnsigned(InputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte(in);
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return v;
+        }
+        throw new IOException("Malformed number in binary log");
+    }
+
+    /**
+     * Read an integer written by signed
+     */
+    private static long readSigned(InputStream in) throws IOException {
+        return unzigzag(readUnsigned(in));
+    }
+}
@@ -4,11 +4,13 @@ import java.awt.Graphics;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * World calculates and displays the dynamics of a bunch of agents
@@ -68,6 +70,60 @@ public class World extends Canvas {
     /** Boolean attribute for wheter to visualize debugging info */
     static final String DEBUG_PARAM = "debug";
 
+    /** Attribute name for how far agents can sense, in pixels */
+    static final String SENSING_PARAM = "sensing";
+    /** Value used when no sensing radius specified: agents see the whole world */
+    static final double UNLIMITED_SENSING = 0;
+
+    /** Boolean attribute says whether to keep agent status in packed arrays */
+    static final String PACKED_PARAM = "packed";
+
+    /** Attribute name for cell size of the raster of fixed agents, in pixels */
+    static final String RASTER_PARAM = "raster";
+    /** Value used when no raster cell size specified: fixed agents are not rasterized */
+    static final double NO_RASTER = 0;
+
+    /** Attribute name for how far an agent must move before the log records it again */
+    static final String LOG_EPSILON_PARAM = "logepsilon";
+    /** Value used when no epsilon specified: every agent is logged every step */
+    static final double LOG_EVERY_AGENT = -1;
+
+    /** Attribute name for number of steps between keyframes in the log */
+    static final String KEYFRAMES_PARAM = "keyframes";
+    /** Value used when no keyframe interval specified: only the first state is complete */
+    static final int NO_KEYFRAMES = 0;
+
+    /** Attribute name for most frames per second to draw while running */
+    static final String FPS_PARAM = "fps";
+
+    /** Default cap on frames per second */
+    static final int DEFAULT_FPS = 30;
+
+    /** Highest frame rate a Scheduler can time in whole milliseconds */
+    static final int MAX_FPS = 1000;
+
+    /** Attribute name for number of threads that share the thinking */
+    static final String THREADS_PARAM = "threads";
+
+    /** Fewest agents a thread takes on at once when thinking in parallel */
+    static final int THINK_BATCH = 32;
+
+    /** 
+     * Slack in the cosine test for field of view, far bigger than
+     * any rounding error, so only agents clearly out of view are
+     * thrown out before the exact angle is computed
+     */
+    static final double FOV_MARGIN = 1e-9;
+
+    /** Size of grid cells for finding collisions when sensing is unlimited */
+    static final double DEFAULT_CELL_SIZE = 50;
+
+    /** Size of cells in the field of nearest lights */
+    static final double LIGHT_CELL_SIZE = 25;
+
+    /** Size of cells in the field of routes around obstacles */
+    static final double FLOW_CELL_SIZE = 5;
+
     /** Element tag for delay in replaying log data */
     static final String WAIT_NAME = "wait";
 
@@ -195,13 +251,12 @@ public class World extends Canvas {
      * the (x,y,x+size,y+size) rectangle of the other agent.
      * We don't worry about the case where both agents are moving;
      * we treat the obstacle agent as though it's standing still.
-     * We use brute force to handle the fact that the world is a torus.
-     * We separately check the four ways the obstacle could wrap around.
-     * It is possible to build highly optimized data structures
-     * that minimize the number of pairwise collision checks that need to 
-     * be made at each time step.  We don't implement anything like this.
-     * We ultimately check every pair of agents for collision at each
-     * time step.
+     * We handle the fact that the world is a torus by checking
+     * the copy of the obstacle that is nearest to the mover.
+     * To avoid checking every pair of agents at each time step,
+     * the mover only checks agents filed in grid cells near its path
+     * (see SpatialGrid); the grid is built at the start of the step,
+     * so the search is widened by the farthest anybody can move in a step.
      * 
      * The algorithms for collision detection were adapted from GPL 
      * code on the web at two places:
@@ -319,82 +374,95 @@ public class World extends Canvas {
     }
 
     /**
-     * Convenience function for Double objects---that might be null
-     * @param d1
-     * @param d2
-     * @return Double object with smallest value from d1 and d2
-     *         or null if both d1 and d2 are null
+     * Value returned by collision tests when the path is clear
      */
-    public static Double min(Double d1, Double d2) {
-        if (d1 == null)
-            return d2;
-        if (d2 == null)
-            return d1;
-        if (d1.doubleValue() <= d2.doubleValue())
-            return d1;
-        else
-            return d2;
-    }
+    public static final double NO_COLLISION = Double.POSITIVE_INFINITY;
 
     /**
      * How far do you get on path from (ax0, ay0) to (ax1, ay1)
      * before you intersect the rectangle at (bl, bt, br, bb)?
+     * 
+     * Clips the path against the vertical and the horizontal slab
+     * that make up the rectangle.  The path meets the rectangle on 
+     * the part of the path that lies in both slabs, so the first
+     * edge it crosses is where it enters the later of the two slabs.
+     * If the path starts inside the rectangle, the first edge it
+     * crosses is the one where it leaves.  Crossing fractions are
+     * computed with the same arithmetic as getIntersection, so the
+     * answers agree with testing each edge as a line segment.
+     * 
+     * @return fraction of the path travelled before hitting an edge,
+     *         or NO_COLLISION if the path crosses no edge
      */
-    public static Double detectOverlap(double ax0, double ay0, double ax1, double ay1,
+    public static double detectOverlap(double ax0, double ay0, double ax1, double ay1,
             double bl, double bt, double br, double bb)
     {
-        Double closest = null;
-
-        // left
-        if (isLineIntersectingLine(ax0, ay0, ax1, ay1, bl, bt, bl, bb)) {
-            closest = min(closest, getIntersection(ax0, ay0, ax1, ay1, bl, bt, bl, bb));            
-        }
-        // right
-        if (isLineIntersectingLine(ax0, ay0, ax1, ay1, br, bt, br, bb)) {
-            closest = min(closest, getIntersection(ax0, ay0, ax1, ay1, br, bt, br, bb));
+        final double dx = ax1 - ax0;
+        final double dy = ay1 - ay0;
+        final double sx = bb - bt;
+        final double sy = br - bl;
+
+        double enter = Double.NEGATIVE_INFINITY;
+        double exit = Double.POSITIVE_INFINITY;
+
+        // vertical slab between left and right edges
+        if (dx == 0) {
+            if (ax0 < bl || ax0 > br)
+                return NO_COLLISION;
+        } else {
+            double tl = sx != 0 ? (-sx * (ax0 - bl)) / (sx * dx) : (bl - ax0) / dx;
+            double tr = sx != 0 ? (-sx * (ax0 - br)) / (sx * dx) : (br - ax0) / dx;
+            enter = Math.min(tl, tr);
+            exit = Math.max(tl, tr);
         }
 
-        // bottom
-        if (World.isLineIntersectingLine(ax0, ay0, ax1, ay1, bl, bb, br, bb)) {
-            closest = min(closest, getIntersection(ax0, ay0, ax1, ay1, bl, bb, br, bb));
+        // horizontal slab between top and bottom edges
+        if (dy == 0) {
+            if (ay0 < bt || ay0 > bb)
+                return NO_COLLISION;
+        } else {
+            double tt = sy != 0 ? (sy * (ay0 - bt)) / (-sy * dy) : (bt - ay0) / dy;
+            double tb = sy != 0 ? (sy * (ay0 - bb)) / (-sy * dy) : (bb - ay0) / dy;
+            enter = Math.max(enter, Math.min(tt, tb));
+            exit = Math.min(exit, Math.max(tt, tb));
         }
 
-        // top
-        if (isLineIntersectingLine(ax0, ay0, ax1, ay1, bl, bt, br, bt)) {
-            closest = min(closest, getIntersection(ax0, ay0, ax1, ay1, bl, bt, br, bt));
-        }
-
-        return closest;
+        if (enter > exit || exit < 0)
+            return NO_COLLISION;
+        if (enter >= 0)
+            return enter <= 1 ? enter : NO_COLLISION;
+        return exit <= 1 ? exit : NO_COLLISION;
     }
 
     /**
      * Detect collision
      * 
+     * Only one copy of b can be within reach of a in a single step,
+     * so rather than testing every way b wraps around the torus, 
+     * we test the copy of b nearest to where a starts.
+     * The test itself depends on b's shape (see Agent.detectCollision);
+     * a Barrier picks the copy of each of its segments for itself.
+     * 
      * @param a moving agent
      * @param ax1 x coordinate of endpoint of a's path at this time step
      * @param ay1 y coordinate of endpoint of a's path at this time step
      * @param wx  width of the world (for torus computations)
      * @param wy  height of the world (for torus computations)
      * @param b obstacle agent that a potentially may collide with
-     * @returns Double whose double value gives the fraction of the path from 
-     *          the current location of a to (ax1, ay1) that a can travel
-     *          before colliding with b
-     *          or null if a will not collide with b on this time step
+     * @returns the fraction of the path from the current location 
+     *          of a to (ax1, ay1) that a can travel before colliding with b
+     *          or NO_COLLISION if a will not collide with b on this time step
      */
-    public static Double detectCollision(Agent a, double ax1, double ay1, int wx, int wy, Agent b)
+    public static double detectCollision(Agent a, double ax1, double ay1, int wx, int wy, Agent b)
     {
         final double ax0 = a.getLocX();
         final double ay0 = a.getLocY();
-        final double size = (double) b.getSize() / 2;
-        final double bl = b.getLocX() - size;
-        final double bt = b.getLocY() - size;
-        final double br = b.getLocX() + size;
-        final double bb = b.getLocY() + size;
 
-        return min(min(detectOverlap(ax0, ay0, ax1, ay1, bl, bt, br, bb),
-                detectOverlap(ax0, ay0, ax1, ay1, bl - wx, bt, br - wx, bb)),
-                min(detectOverlap(ax0, ay0, ax1, ay1, bl, bt - wy, br, bb - wy),
-                        detectOverlap(ax0, ay0, ax1, ay1, bl - wx, bt - wy, br - wx, bb - wy)));
+        // shift b by whole laps of the torus to the copy nearest a
+        final double lapsX = Math.rint((ax0 - b.getLocX()) / wx);
+        final double lapsY = Math.rint((ay0 - b.getLocY()) / wy);
+
+        return b.detectCollision(ax0, ay0, ax1, ay1, lapsX * wx, lapsY * wy);
     }
 
     /**
@@ -402,11 +470,29 @@ public class World extends Canvas {
      */
 
     /** All the active entities that "live" in the world */
-    private List<Agent> agents;
+    private ArrayList<Agent> agents;
+    /** The same agents, looked up by id */
+    private AgentIndex byId;
+    /** Agents left out of byId because an earlier agent has the same id */
+    private int shadowed;
+    /** Agents that have died since corpses were last removed */
+    private int deaths;
+    /** Scratch space for the agents removed as corpses */
+    private ArrayList<Agent> corpses;
     /** The agent that is currently being dragged by the user in the UI */
     private Agent clicked;
     /** Where dynamaics history should be written, null means don't write */
     private String logfile;
+    /** Open channel to the log file, or null if it is not open yet */
+    private LogWriter log;
+    /** Binary encoding of the log, or null if the log is XML */
+    private TrajectoryLog trajectory;
+    /** Change that can go unlogged, or LOG_EVERY_AGENT */
+    private double logEpsilon;
+    /** Steps between keyframes in the log, or NO_KEYFRAMES */
+    private int keyframeInterval;
+    /** Open channel to the index of keyframes, or null if there is none */
+    private LogWriter index;
     /** If runnable is false this is inert history data */
     private boolean runnable;
     /** Default amount of time to wait between steps of simulation */
@@ -414,7 +500,87 @@ public class World extends Canvas {
     /** Whether to visualize debugging info */
     private boolean debug;
     /** How many steps of simulation have been run */
-    private int stepCount;
+    private volatile int stepCount;
+    /** How many threads share the think pass of each step */
+    private int threads;
+    /** Should each step ask for the world to be redrawn */
+    private boolean autoRepaint;
+    /** Most frames per second to draw while the simulation runs */
+    private int fps;
+    /** The world as drawn by the last renderFrame, which paint shows */
+    private BufferedImage shownFrame;
+    /** Spare image for renderFrame to draw the next frame into */
+    private BufferedImage nextFrame;
+    /** Snapshot published by the last step and not drawn yet, if any */
+    private Snapshot pendingSnapshot;
+    /** Snapshot that shownFrame was drawn from */
+    private Snapshot shownSnapshot;
+    /** Snapshot free for publishFrame to fill in next */
+    private Snapshot spareSnapshot;
+    /** Guards the exchange of frames and of snapshots */
+    private Object frames;
+    /** Held while a frame is drawn, so only one thread draws at a time */
+    private Object rendering;
+    /** Set when the world should be drawn at the end of the next step */
+    private volatile boolean frameWanted;
+    /** Worker threads for the think pass, created when first needed */
+    private ForkJoinPool pool;
+    /** Where the user dragged the clicked agent while a step was running */
+    private Agent dragged;
+    /** Drag destination, horizontal */
+    private int dragX;
+    /** Drag destination, vertical */
+    private int dragY;
+    /** How far away agents can sense each other, or UNLIMITED_SENSING */
+    private double sensingRadius;
+    /** Packed copy of agent status, in the same order as agents, or null */
+    private AgentStore store;
+    /** Index of the locations of movers at the start of the current step */
+    private SpatialGrid grid;
+    /** Index of the locations of fixed agents, kept until they change */
+    private SpatialGrid fixedGrid;
+    /** Agents that think or move, in list order */
+    private ArrayList<Agent> movers;
+    /** Agents that neither think nor move, in list order */
+    private ArrayList<Agent> fixed;
+    /** Store slots of the movers, when packed */
+    private int[] moverSlots;
+    /** True if fixed agents have come, gone or changed since fixedGrid was built */
+    private boolean fixedStale;
+    /** True if agents have come or gone since movers was worked out */
+    private boolean moversStale;
+    /** Half the size of the biggest fixed agent */
+    private double fixedHalfSize;
+    /** Farthest the nearest part of a fixed agent can be from its location */
+    private double fixedSpread;
+    /** Cell size of the raster of fixed agents, or NO_RASTER */
+    private double rasterCellSize;
+    /** Where the fixed agents are, for tracing paths, or null if not rasterized */
+    private OccupancyRaster raster;
+    /** Nearest fixed light from anywhere in the world */
+    private LightField lightField;
+    /** Routes around the fixed obstacles, shared by agents with the same target */
+    private FlowField flowField;
+    /** How many lights are among the movers */
+    private int movingLights;
+    /** Sequence number for the next agent added */
+    private int nextSeq;
+    /** Scratch space for grid queries, one per thread */
+    private ThreadLocal<Nearby> nearby;
+    /** What the agent that is thinking knows about itself, one per thread */
+    private ThreadLocal<Viewpoint> viewpoints;
+    /** Percepts being given to the agent that is thinking, one list per thread */
+    private ThreadLocal<PerceptList> percepts;
+    /** Scratch space for moves made one at a time, one per thread */
+    private ThreadLocal<Move> moves;
+    /** Moves proposed in parallel, by position in the step grid */
+    private Move[] planned;
+    /** Half the size of the biggest mover */
+    private double maxHalfSize;
+    /** Farthest the nearest part of a mover can be from its location */
+    private double maxSpread;
+    /** Farthest any mover can move in the current step */
+    private double maxStep;
 
     /**
      * Instance code
@@ -426,13 +592,14 @@ public class World extends Canvas {
      */
     class ClickToSelectAgent extends MouseAdapter {
         public void mousePressed(MouseEvent e) {
-            int x = e.getX();
-            int y = e.getY();
-            for (Agent a: agents) {
-                if (a.isInside(x, y)) {
-                    clicked = a;
-                    break;
-                } 
+            // pick from what is on the screen, so a click
+            // never waits for a step to finish
+            synchronized (frames) {
+                if (shownSnapshot != null) {
+                    Agent a = shownSnapshot.agentAt(e.getX(), e.getY());
+                    if (a != null)
+                        clicked = a;
+                }
             }
         }
 
@@ -444,18 +611,32 @@ public class World extends Canvas {
     /**
      * Helper class that organizes the UI processing
      * so you can drag agents and move them.
+     * In a running simulation, the move waits for the next step
+     * to begin, so agents never see the world change while they think.
      */
     class DragToMoveAgent extends MouseMotionAdapter {
         public void mouseDragged(MouseEvent e) {
             int x = e.getX();
             int y = e.getY();
             if (clicked != null) {
-                clicked.setLocX(x);
-                clicked.setLocY(y);
+                if (runnable) {
+                    synchronized (DragToMoveAgent.this) {
+                        dragged = clicked;
+                        dragX = x;
+                        dragY = y;
+                    }
+                } else {
+                    clicked.setLocX(x);
+                    clicked.setLocY(y);
+                    fixedStale = true;
+                }
             }
         }
     }
 
+    /** The listener handling drags, which also guards the pending drag */
+    private DragToMoveAgent dragger;
+
     /**
      * Constructor for new environments
      * 
@@ -468,13 +649,71 @@ public class World extends Canvas {
     public World(int width, int height, String log, boolean run, int wait, boolean debug) {
         setSize(width, height);
         logfile = log;
+        this.log = null;
         runnable = run;
         delay = wait;
-        agents = new LinkedList<Agent>();
+        agents = new ArrayList<Agent>();
+        byId = new AgentIndex();
+        shadowed = 0;
+        deaths = 0;
+        corpses = new ArrayList<Agent>();
         this.debug = debug;
         stepCount = 0;
+        sensingRadius = UNLIMITED_SENSING;
+        store = null;
+        grid = null;
+        fixedGrid = null;
+        movers = new ArrayList<Agent>();
+        fixed = new ArrayList<Agent>();
+        moverSlots = new int[0];
+        fixedStale = true;
+        moversStale = true;
+        rasterCellSize = NO_RASTER;
+        raster = null;
+        logEpsilon = LOG_EVERY_AGENT;
+        keyframeInterval = NO_KEYFRAMES;
+        index = null;
+        lightField = null;
+        flowField = null;
+        movingLights = 0;
+        nextSeq = 0;
+        nearby = new ThreadLocal<Nearby>() {
+            protected Nearby initialValue() {
+                return new Nearby();
+            }
+        };
+        viewpoints = new ThreadLocal<Viewpoint>() {
+            protected Viewpoint initialValue() {
+                return new Viewpoint();
+            }
+        };
+        percepts = new ThreadLocal<PerceptList>() {
+            protected PerceptList initialValue() {
+                return new PerceptList();
+            }
+        };
+        moves = new ThreadLocal<Move>() {
+            protected Move initialValue() {
+                return new Move();
+            }
+        };
+        planned = new Move[0];
+        threads = 1;
+        pool = null;
+        autoRepaint = true;
+        fps = DEFAULT_FPS;
+        shownFrame = null;
+        nextFrame = null;
+        pendingSnapshot = null;
+        shownSnapshot = null;
+        spareSnapshot = null;
+        frames = new Object();
+        rendering = new Object();
+        frameWanted = false;
+        dragged = null;
         addMouseListener(new ClickToSelectAgent());
-        addMouseMotionListener(new DragToMoveAgent());
+        dragger = new DragToMoveAgent();
+        addMouseMotionListener(dragger);
     }
 
     /**
@@ -512,22 +751,268 @@ public class World extends Canvas {
         return delay;
     }
 
+    /**
+     * @return how far away agents can sense each other,
+     *         or UNLIMITED_SENSING if they see the whole world
+     */
+    public double getSensingRadius() {
+        return sensingRadius;
+    }
+
+    /**
+     * Limit how far away agents can sense each other.
+     * With a limited radius, each agent only considers the
+     * agents in nearby cells of the world's grid rather than 
+     * everybody in the world.
+     * 
+     * @param r radius in pixels, or UNLIMITED_SENSING
+     */
+    public void setSensingRadius(double r) {
+        sensingRadius = r;
+        grid = null;
+    }
+
+    /**
+     * @return cell size of the raster of fixed agents, or NO_RASTER
+     */
+    public double getRasterCellSize() {
+        return rasterCellSize;
+    }
+
+    /**
+     * Choose whether to rasterize the fixed agents for collision checks.
+     * With a raster, a mover finds the fixed agents in its way by
+     * walking the raster cells along its path (see OccupancyRaster), 
+     * which pays off when walls are built from many small obstacles.
+     * 
+     * @param size cell size in pixels, or NO_RASTER
+     */
+    public void setRasterCellSize(double size) {
+        rasterCellSize = size;
+        raster = null;
+        fixedStale = true;
+    }
+
+    /**
+     * @return change in an agent that can go unlogged, or LOG_EVERY_AGENT
+     */
+    public double getLogEpsilon() {
+        return logEpsilon;
+    }
+
+    /**
+     * Choose whether each step's log records every agent, or only
+     * the agents whose position, heading or speed has moved more
+     * than epsilon (in pixels, degrees and pixels per step) from
+     * the values last logged for them.  Agents that are left out
+     * keep the values last logged when the log is replayed, so
+     * with epsilon 0 replay puts every agent exactly where the
+     * simulation had it, and otherwise within epsilon of it.
+     *
+     * @param epsilon largest change that can go unlogged, or LOG_EVERY_AGENT
+     */
+    public void setLogEpsilon(double epsilon) {
+        logEpsilon = epsilon;
+    }
+
+    /**
+     * @return steps between keyframes in the log, or NO_KEYFRAMES
+     */
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    /**
+     * Choose whether the log describes every agent in complete detail
+     * again every so many steps, as it does at the start, and keeps
+     * an index of where those keyframes are (see LogIndex), so that
+     * replay can start from any step by reading from the keyframe
+     * before it rather than from the start of the log.
+     *
+     * @param steps steps between keyframes, or NO_KEYFRAMES
+     */
+    public void setKeyframeInterval(int steps) {
+        keyframeInterval = Math.max(steps, NO_KEYFRAMES);
+    }
+
+    /**
+     * @return true if each step asks for the world to be redrawn
+     */
+    public boolean isAutoRepaint() {
+        return autoRepaint;
+    }
+
+    /**
+     * Say whether each step should ask for the world to be redrawn.
+     * Turn this off when nobody is watching, for example in batch runs.
+     * 
+     * @param r true to repaint after every step
+     */
+    public void setAutoRepaint(boolean r) {
+        autoRepaint = r;
+    }
+
+    /**
+     * @return most frames per second to draw while the simulation runs
+     */
+    public int getFps() {
+        return fps;
+    }
+
+    /**
+     * Cap the rate at which a Scheduler redraws the running world.
+     * 
+     * @param f frames per second, from 1 to MAX_FPS
+     */
+    public void setFps(int f) {
+        fps = Math.max(1, Math.min(MAX_FPS, f));
+    }
+
+    /**
+     * @return how many threads share the think pass of each step
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Let several threads share the think pass of each step.
+     * Agents only write their own intentions while they think,
+     * and nobody moves until every agent has finished thinking,
+     * so each agent can deliberate independently.
+     * 
+     * @param n number of threads, 1 to think on the calling thread
+     */
+    public void setThreads(int n) {
+        threads = Math.max(1, n);
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * @return true if agent status is kept in packed arrays
+     */
+    public boolean isPacked() {
+        return store != null;
+    }
+
+    /**
+     * Choose whether to keep the location, heading and speed of
+     * all agents in packed arrays (see AgentStore) instead of each
+     * agent's own record.
+     * Packing pays off in big worlds, where sensing and moving
+     * every agent otherwise means visiting objects all over memory.
+     * 
+     * @param packed true to use packed arrays
+     */
+    public void setPacked(boolean packed) {
+        if (packed && store == null) {
+            store = new AgentStore();
+            for (Agent a: agents) {
+                store.add(a);
+            }
+        } else if (!packed && store != null) {
+            for (Agent a: agents) {
+                a.unbind();
+            }
+            store = null;
+        }
+        moversStale = true;
+    }
+
     /**
      * Attach a new agent to the world environment
      * @param a agent object to add
      */
     public void addAgent(Agent a) {
+        a.seq = nextSeq++;
         agents.add(a);
+        moversStale = true;
+        if (isFixed(a))
+            fixedStale = true;
+        if (!byId.add(a))
+            shadowed++;
+        if (store != null)
+            store.add(a);
     }
 
     /**
      * Remove an agent from the world environment.
      * Useful if a has died or been eaten.
+     * Does nothing if a is not in the world.
      * 
      * @param a agent object to remove.
      */
     public void removeAgent(Agent a) {
-        agents.remove(a);
+        if (!agents.remove(a))
+            return;
+        moversStale = true;
+        if (isFixed(a))
+            fixedStale = true;
+        if (store != null)
+            store.remove(a);
+        forget(a);
+    }
+
+    /**
+     * Take an agent that has left the agent list out of byId.
+     * If it was filed there and some other agent has the same id,
+     * file the first such agent in the list in its place,
+     * so getAgent still finds the first match in the list.
+     * If it was not filed there, it was one of the shadowed agents.
+     * 
+     * @param a agent that was in agents and has just been removed
+     */
+    private void forget(Agent a) {
+        if (!byId.remove(a)) {
+            if (shadowed > 0 && byId.get(a.getId()) != null)
+                shadowed--;
+            return;
+        }
+        if (shadowed == 0)
+            return;
+        for (Agent b: agents) {
+            if (a.getId() == b.getId()) {
+                byId.add(b);
+                shadowed--;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Called by an agent when it dies, so the world knows
+     * there are corpses to clear away at the end of the step
+     */
+    void noteDeath() {
+        deaths++;
+    }
+
+    /**
+     * Called by an agent when its parameters are changed from outside,
+     * as by an XML update, since it may have moved or started or
+     * stopped moving
+     * 
+     * @param a agent that changed
+     */
+    void noteUpdate(Agent a) {
+        moversStale = true;
+        fixedStale = true;
+    }
+
+    /**
+     * Agents that neither think nor move stay exactly where they are
+     * unless something from outside the simulation moves them,
+     * so the world keeps them in a separate layer that is only
+     * indexed when it changes.
+     * 
+     * @param a agent in the world
+     * @return true if a belongs in the fixed layer
+     */
+    private static boolean isFixed(Agent a) {
+        return !a.perceives() && !a.moves();
     }
 
     /**
@@ -537,12 +1022,7 @@ public class World extends Canvas {
      * @return agent object if found, null otherwise
      */
     public Agent getAgent(int id) {
-        for (Agent a: agents) {
-            if (id == a.getId()) {
-                return a;
-            }
-        }
-        return null;
+        return byId.get(id);
     }
 
     /**
@@ -554,47 +1034,92 @@ public class World extends Canvas {
      * and write header information giving world parameters.
      * Then describe each of the agents in the world,
      * in complete detail, giving the initial state
-     * of the simulation.
+     * of the simulation.  The file stays open, and is written
+     * in the background (see LogWriter), until finishLogging.
+     * A logfile name ending in TrajectoryLog.EXTENSION gets
+     * the same history in the compact binary form instead.
+     * Holds the world's lock, so no step is logged meanwhile.
      */
-    public void startLogging() {
+    public synchronized void startLogging() {
         if (logfile != null) {
             try {
-                BufferedWriter out = new BufferedWriter(new FileWriter(logfile, false));
-                out.write("<?xml version=\"1.0\"?>\n\n");
-                out.write("<" + XML_NAME + 
-                        " xmlns=\"" + XMLNS +
-                        "\" " + WIDTH_PARAM +
-                        "=\"" + Integer.toString(getWidth()) +
-                        "\" " + HEIGHT_PARAM +
-                        "=\"" + Integer.toString(getHeight()) +
-                        "\" " + RUNNABLE_PARAM + 
-                        "=\"false\" " + DEBUG_PARAM +
-                        "=\"true\" >\n"
-                );
-                out.write("  <" + STATE_NAME + " " +
-                        STEP_NAME + "=\"" + Integer.toString(stepCount) + "\" >\n");
-                for (Agent a: agents) {
-                    a.log(out);
-                }
-                out.write("  </" + STATE_NAME + ">\n");
-                out.write("  <" + WAIT_NAME + " " + WAIT_INTERVAL + "=\"" +
-                        Integer.toString(DEFAULT_WAIT) + "\"/>\n");
-                out.close();
+                if (log != null)
+                    closeLog();
+                openLog(false);
+                LogWriter w = log;
+                LogEncoder out = w.out();
+                if (trajectory != null)
+                    trajectory.world(out, getWidth(), getHeight());
+                else
+                    logWorldStart(out, getWidth(), getHeight());
+                logFullState(w, false);
+                w.send();
             } catch (IOException e) {
             }
         }
     }
 
     /**
-     * Open XML log file - if world is supposed to have one -
-     * and write final close ending main XML element.
+     * Open the log file, in the binary form if its name asks for it,
+     * and its index if keyframes are to be written.  A log written
+     * afresh without keyframes loses any index left from before.
+     *
+     * @param append true to add to the end of the file,
+     *               false to start it afresh
+     * @throws IOException if the file cannot be opened
+     */
+    private void openLog(boolean append) throws IOException {
+        if (TrajectoryLog.isBinary(logfile)) {
+            log = new LogWriter(logfile, append, TrajectoryLog.CHARSET);
+            trajectory = new TrajectoryLog();
+            trajectory.begin(log.out());
+        } else {
+            log = new LogWriter(logfile, append);
+            trajectory = null;
+        }
+        if (keyframeInterval != NO_KEYFRAMES)
+            index = new LogWriter(LogIndex.fileFor(logfile), append);
+        else if (!append)
+            new File(LogIndex.fileFor(logfile)).delete();
+    }
+
+    /**
+     * Wait for the log and its index to be written, and close them
+     *
+     * @throws IOException if anything could not be written
+     */
+    private void closeLog() throws IOException {
+        try {
+            log.close();
+        } finally {
+            log = null;
+            trajectory = null;
+            if (index != null) {
+                LogWriter i = index;
+                index = null;
+                i.close();
+            }
+        }
+    }
+
+    /**
+     * Write final close ending main XML element to the
+     * XML log file - if world is supposed to have one -
+     * wait for everything to reach the file, and close it.
+     * Holds the world's lock, so the log is never closed
+     * in the middle of a step.
      */ 
-    public void finishLogging() {
+    public synchronized void finishLogging() {
         if (logfile != null) {
             try {
-                BufferedWriter out = new BufferedWriter(new FileWriter(logfile, true));
-                out.write("</" + XML_NAME + ">\n\n");
-                out.close();
+                if (log == null)
+                    openLog(true);
+                LogWriter w = log;
+                if (trajectory != null)
+                    trajectory.end(w.out());
+                else
+                    logWorldEnd(w.out());
+                closeLog();
             } catch (IOException e) {
             }
             logfile = null;
@@ -602,59 +1127,274 @@ public class World extends Canvas {
     }
 
     /**
-     * Open XML log file - if world is supposed to have one -
-     * and append state description describing the dynamic parameters
+     * Append to the XML log file - if world is supposed to have one -
+     * a state description describing the dynamic parameters
      * of all the agents in the environment at the current
-     * time step.
+     * time step - or, with a log epsilon, of the agents that
+     * have changed enough since last logged (see setLogEpsilon).
+     * Agents that died during the step are
+     * then recorded as removed.  The text is handed to the
+     * log's writing thread, so the step does not wait for the disk.
+     * On a keyframe step (see setKeyframeInterval) the agents are
+     * described in complete detail instead.
      */
     private void logStep() {
         if (logfile != null) {
             try {
-                BufferedWriter out = new BufferedWriter(new FileWriter(logfile, true));
-                out.write("  <" + STATE_NAME + " " +
-                        STEP_NAME + "=\"" + Integer.toString(stepCount) + "\">\n");
-                for (Agent a: agents) {
-                    a.changelog(out);
+                if (log == null)
+                    openLog(true);
+                LogWriter w = log;
+                LogEncoder out = w.out();
+                boolean keyframe = keyframeInterval != NO_KEYFRAMES && stepCount % keyframeInterval == 0;
+                if (keyframe) {
+                    logFullState(w, true);
+                } else {
+                    if (trajectory != null) {
+                        trajectory.step(out, stepCount);
+                        for (Agent a: agents) {
+                            if (logEpsilon == LOG_EVERY_AGENT || a.logsChanged(logEpsilon))
+                                a.changelog(trajectory, out);
+                        }
+                        trajectory.endStep(out);
+                    } else {
+                        logStateStart(out, stepCount, false);
+                        for (Agent a: agents) {
+                            if (logEpsilon == LOG_EVERY_AGENT || a.logsChanged(logEpsilon))
+                                a.changelog(out);
+                        }
+                        logStateEnd(out);
+                    }
                 }
-                out.write("  </" + STATE_NAME + ">\n");
-                out.write("  <" + WAIT_NAME + " " + WAIT_INTERVAL + "=\"" +
-                        Integer.toString(DEFAULT_WAIT) + "\"/>\n");
-                out.close();
+                logDeaths(out);
+                w.send();
             } catch (IOException e) {
             }
         }
     }
 
     /**
-     * Open XML log file - if world is supposed to have one -
-     * and append instructions to remove display of agent a
-     * for subsequent steps of the simulation.
-     * @param a agent that should not be rendered in future steps
+     * Describe every agent in complete detail, noting where
+     * the description starts in the index if there is one.
+     *
+     * @param w log being written
+     * @param restart true to begin a binary log afresh first, so
+     *                it can be read from here on its own
+     * @throws IOException if the index cannot be written
      */
-    private void logDeath(Agent a) {
-        if (logfile != null) {
-            try {
-                BufferedWriter out = new BufferedWriter(new FileWriter(logfile, true));
-                out.write("  <" + DIE_NAME + " " + Agent.ID_PARAM + "=\"" + Integer.toString(a.getId()) + "\" />\n");
-                out.close();
-            } catch (IOException e) {
+    private void logFullState(LogWriter w, boolean restart) throws IOException {
+        LogEncoder out = w.out();
+        if (index != null) {
+            LogIndex.entry(index.out(), stepCount, w.position());
+            index.send();
+        }
+        if (trajectory != null) {
+            if (restart)
+                trajectory.begin(out);
+            trajectory.state(out, stepCount, agents);
+        } else {
+            logStateStart(out, stepCount, true);
+            for (Agent a: agents) {
+                a.log(out);
+            }
+            logStateEnd(out);
+        }
+        if (logEpsilon != LOG_EVERY_AGENT) {
+            for (Agent a: agents) {
+                a.markLogged();
             }
         }
     }
 
+    /**
+     * Record the agents that died during the step as removed
+     *
+     * @param out log being written
+     */
+    private void logDeaths(LogEncoder out) {
+        if (deaths > 0) {
+            for (Agent a: agents) {
+                if (!a.isAlive()) {
+                    if (trajectory != null)
+                        trajectory.kill(out, a.getId());
+                    else
+                        logDeath(out, a.getId());
+                }
+            }
+        }
+    }
+
+    /**
+     * Begin the XML log: the XML declaration and the opening
+     * of the main element, giving the size of the world.
+     *
+     * @param out log being written
+     * @param width horizontal extent of the world
+     * @param height vertical extent of the world
+     */
+    static void logWorldStart(LogEncoder out, int width, int height) {
+        out.write("<?xml version=\"1.0\"?>\n\n");
+        out.write("<" + XML_NAME + 
+                " xmlns=\"" + XMLNS +
+                "\" " + WIDTH_PARAM +
+                "=\"").number(width).write(
+                "\" " + HEIGHT_PARAM +
+                "=\"").number(height).write(
+                "\" " + RUNNABLE_PARAM + 
+                "=\"false\" " + DEBUG_PARAM +
+                "=\"true\" >\n"
+        );
+    }
+
+    /**
+     * Open the state description for a step
+     *
+     * @param out log being written
+     * @param step number of the step described
+     * @param full true for a state giving agents in complete detail,
+     *             false for one giving only their dynamic parameters
+     */
+    static void logStateStart(LogEncoder out, int step, boolean full) {
+        out.write("  <" + STATE_NAME + " " +
+                STEP_NAME + "=\"").number(step).write(full ? "\" >\n" : "\">\n");
+    }
+
+    /**
+     * Close the state description for a step, and ask
+     * viewers to wait before showing the next one.
+     *
+     * @param out log being written
+     */
+    static void logStateEnd(LogEncoder out) {
+        out.write("  </" + STATE_NAME + ">\n");
+        out.write("  <" + WAIT_NAME + " " + WAIT_INTERVAL + "=\"").number(
+                DEFAULT_WAIT).write("\"/>\n");
+    }
+
+    /**
+     * Close the main element, ending the XML log
+     *
+     * @param out log being written
+     */
+    static void logWorldEnd(LogEncoder out) {
+        out.write("</" + XML_NAME + ">\n\n");
+    }
+
+    /**
+     * Append instructions to remove display of an agent
+     * for subsequent steps of the simulation.
+     * @param out log being written for the current step
+     * @param id identifier of agent that should not be rendered in future steps
+     */
+    static void logDeath(LogEncoder out, int id) {
+        out.write("  <" + DIE_NAME + " " + Agent.ID_PARAM + "=\"").number(id).write("\" />\n");
+    }
+
 
     /**
-     * Callback method to redisplay the world
+     * Callback method to redisplay the world.
+     * Shows the frame last published (see publishFrame), so it
+     * never waits for a step in progress, and what is drawn
+     * is always the state at the end of a step.
      */
     public void paint(Graphics g) {
-        if (debug) {
-            g.setColor(Color.BLACK);
-            g.drawString(Integer.toString(stepCount), 3, getHeight() - 3);
+        synchronized (frames) {
+            if (shownFrame != null)
+                g.drawImage(shownFrame, 0, 0, null);
         }
+    }
 
-        for (Agent a: agents) {
-            a.draw(g);
+    /**
+     * Take a snapshot of the world as it is now for the renderer
+     * to draw (see renderFrame), and draw it straight away if the
+     * world repaints after every step.  Called by the thread that
+     * changes the world - at the end of a step, or when a replayed
+     * state has been read - so the agents are never caught half way
+     * through a step.  Only a few numbers per agent are copied here;
+     * the drawing is left to renderFrame, outside the world's lock.
+     * Does nothing while the world is not displayable,
+     * since then there is nobody to show it to.
+     */
+    public synchronized void publishFrame() {
+        frameWanted = false;
+        if (!isDisplayable())
+            return;
+        Snapshot s;
+        synchronized (frames) {
+            s = spareSnapshot;
+            spareSnapshot = null;
         }
+        if (s == null)
+            s = new Snapshot();
+        s.take(agents, stepCount);
+
+        // a snapshot nobody got round to drawing is simply skipped
+        synchronized (frames) {
+            if (pendingSnapshot != null)
+                spareSnapshot = pendingSnapshot;
+            pendingSnapshot = s;
+        }
+        if (autoRepaint)
+            renderFrame();
+    }
+
+    /**
+     * Draw the snapshot last published, unless it has been drawn
+     * already, into a frame of its own, make that the frame paint
+     * shows, and ask for it to be shown.  Never touches the agents'
+     * state or the world's lock, so the render thread (see
+     * Scheduler) can draw while the next step runs.
+     */
+    public void renderFrame() {
+        synchronized (rendering) {
+            Snapshot s;
+            synchronized (frames) {
+                s = pendingSnapshot;
+                pendingSnapshot = null;
+            }
+            if (s == null)
+                return;
+
+            int width = Math.max(1, getWidth());
+            int height = Math.max(1, getHeight());
+            BufferedImage next = nextFrame;
+            if (next == null || next.getWidth() != width || next.getHeight() != height)
+                next = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+            Graphics g = next.getGraphics();
+            try {
+                Color background = getBackground();
+                g.setColor(background != null ? background : Color.WHITE);
+                g.fillRect(0, 0, width, height);
+                if (getFont() != null)
+                    g.setFont(getFont());
+                if (debug) {
+                    g.setColor(Color.BLACK);
+                    g.drawString(Integer.toString(s.step), 3, getHeight() - 3);
+                }
+                s.draw(g);
+            } finally {
+                g.dispose();
+            }
+
+            // paint only ever draws shownFrame, so the old one is free once
+            // swapped out, and clicks only look at shownSnapshot
+            synchronized (frames) {
+                nextFrame = shownFrame;
+                shownFrame = next;
+                if (spareSnapshot == null)
+                    spareSnapshot = shownSnapshot;
+                shownSnapshot = s;
+            }
+        }
+        repaint();
+    }
+
+    /**
+     * Ask for a snapshot to be published at the end of the next step,
+     * even if the world does not repaint after every step
+     */
+    public void requestFrame() {
+        frameWanted = true;
     }
 
     /**
@@ -854,30 +1594,192 @@ public class World extends Canvas {
         return displacementOnCircle(wrt.getHeading(), of.getHeading(), 2 * Math.PI);
     }
 
+    /**
+     * What it takes to draw the world as it was at the end of a
+     * step: the agents in list order, with where each one was,
+     * which way it faced and what color it was.  Filled in by the
+     * thread that steps the world and then only read, by whichever
+     * thread draws it or hit-tests a mouse click against it.
+     * The arrays are kept from one snapshot to the next, so
+     * taking one allocates nothing once the world stops growing.
+     */
+    static class Snapshot {
+        /** Agents in the snapshot, in the first count places */
+        Agent[] agents = new Agent[0];
+        /** Horizontal coordinate of each agent */
+        double[] x = new double[0];
+        /** Vertical coordinate of each agent */
+        double[] y = new double[0];
+        /** Heading of each agent */
+        double[] heading = new double[0];
+        /** Color of each agent */
+        Color[] color = new Color[0];
+        /** Number of agents in the snapshot */
+        int count;
+        /** Number of steps run when the snapshot was taken */
+        int step;
+
+        /**
+         * Copy the state of the agents that drawing needs
+         *
+         * @param from agents to copy, in drawing order
+         * @param steps number of steps run so far
+         */
+        void take(ArrayList<Agent> from, int steps) {
+            int n = from.size();
+            if (agents.length < n) {
+                agents = new Agent[n];
+                x = new double[n];
+                y = new double[n];
+                heading = new double[n];
+                color = new Color[n];
+            }
+            int i = 0;
+            for (Agent a: from) {
+                agents[i] = a;
+                x[i] = a.getLocX();
+                y[i] = a.getLocY();
+                heading[i] = a.getHeading();
+                color[i] = a.getColor();
+                i++;
+            }
+            // let go of agents left over from a bigger world
+            if (count > n) {
+                Arrays.fill(agents, n, count, null);
+                Arrays.fill(color, n, count, null);
+            }
+            count = n;
+            step = steps;
+        }
+
+        /**
+         * Draw every agent as it was in the snapshot
+         *
+         * @param g graphics to draw into
+         */
+        void draw(Graphics g) {
+            for (int i = 0; i < count; i++)
+                agents[i].draw(g, x[i], y[i], heading[i], color[i]);
+        }
+
+        /**
+         * @param px horizontal coordinate of a click
+         * @param py vertical coordinate of a click
+         * @return first agent the click lands on, as it was
+         *         in the snapshot, or null if none
+         */
+        Agent agentAt(int px, int py) {
+            for (int i = 0; i < count; i++)
+                if (agents[i].isInside(px, py, x[i], y[i]))
+                    return agents[i];
+            return null;
+        }
+    }
+
+    /**
+     * What a seer needs to know about itself to sense others,
+     * worked out once and reused for each agent it looks at
+     */
+    static class Viewpoint {
+        /** Agent doing the looking */
+        Agent seer = null;
+        /** Direction the seer was facing when this was worked out */
+        double heading;
+        /** How far to each side the seer can see */
+        double fov;
+        /** Cosine of heading */
+        double cos;
+        /** Sine of heading */
+        double sin;
+        /** Cosine of fov, less a margin for rounding */
+        double cosFov;
+        /** True if the seer can see all the way around */
+        boolean allAround;
+        /** Which percepts the seer wants */
+        PerceptFilter interests;
+        /** Furthest the seer wants to see anything, negative if nothing */
+        double reach;
+        /** Scratch space for the nearest part of an extended agent */
+        final double[] part = new double[2];
+
+        /**
+         * Work out the view from agent a
+         * @param a agent doing the looking
+         */
+        void look(Agent a) {
+            seer = a;
+            heading = a.getHeading();
+            fov = a.getFieldOfViewEachSide();
+            cos = Math.cos(heading);
+            sin = Math.sin(heading);
+            cosFov = Math.cos(fov) - FOV_MARGIN;
+            allAround = fov >= Math.PI;
+            interests = a.interests();
+            reach = interests.maxRange();
+        }
+    }
+
     /**
      * Constructs the percept that Agent SEER gets
-     * from Agent SEEN.
+     * from Agent SEEN, if SEER can see it, and adds
+     * it to the list giving input to SEER's deliberation.
      * Override this method to add noise in sensors,
      * and other aspects of simulated visual cognition.
      * 
+     * Skips anything SEER has no interest in, as described
+     * by its interests() filter.  Otherwise works out the 
+     * displacement between the two once, and
+     * throws out anything out of sensing range, or clearly
+     * outside the field of view (by the cosine of the angle to it),
+     * before it uses any trigonometry.  Percepts that are produced
+     * are the same as distance, direction and relativeHeading give,
+     * except that an extended agent such as a Barrier is seen 
+     * where its nearest part is (see Agent.nearestPart).
+     * 
      * @param seer Agent who will be supplied this percept
      * @param seen Agent that this percept describes
-     * @return Element of list giving input to SEER's deliberation
+     * @param ps Percepts SEER has got so far
      */
-    protected Percept senseAgent(Agent seer, Agent seen) {
-        double direction = direction(seer,seen);
+    protected void senseAgent(Agent seer, Agent seen, PerceptList ps) {
+        Viewpoint v = viewpoints.get();
+        if (v.seer != seer || v.heading != seer.getHeading() || 
+                v.fov != seer.getFieldOfViewEachSide())
+            v.look(seer);
+
+        Percept.ObjectCategory category = seen.looksLike();
+        double range = v.reach;
+        if (category != null) {
+            if (!v.interests.wants(category, seen.getColor()))
+                return;
+            range = v.interests.range(category);
+        }
+
+        double dx = displacementOnCircle(seer.getLocX(), seen.getLocX(), getWidth());
+        double dy = displacementOnCircle(seer.getLocY(), seen.getLocY(), getHeight());
+        if (seen.isExtended()) {
+            // look at the nearest part of it
+            seen.nearestPart(dx, dy, v.part);
+            dx = v.part[0];
+            dy = v.part[1];
+        }
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        if (distance > range)
+            return;
+        if (sensingRadius != UNLIMITED_SENSING && distance > sensingRadius)
+            return;
+        if (!v.allAround && distance > 0 && dx * v.cos + dy * v.sin < v.cosFov * distance)
+            return;
 
-        if (Math.abs(direction) <= seer.getFieldOfViewEachSide()) {
+        double direction = displacementOnCircle(v.heading, Math.atan2(dy, dx), 2 * Math.PI);
+        if (Math.abs(direction) <= v.fov) {
             // Seer sees things exactly as they are
-            return new Percept(seen.looksLike(),
+            ps.add(category,
                     seen.getColor(),
-                    distance(seer, seen),
-                    direction(seer, seen),
+                    distance,
+                    direction,
                     relativeHeading(seer, seen),
                     seen.getForwardV());
         }
-        else
-            return null;
 
     }
 
@@ -885,26 +1787,323 @@ public class World extends Canvas {
      * Run a step of deliberation on Agent a.
      * Construct the percept A gets now and
      * feed it to A's deliberation method.
+     * The percept list belongs to the thread and is
+     * refilled for the next agent that thinks.
      * Override this method to add visibility checks
      * and other aspects of simulated visual cognition.
      * 
      * @param a One of the agents in the world
      */
     protected void makeAgentThink(Agent a) {
-
-        // A can see everybody else in the world
-        List<Percept> ps = new LinkedList<Percept>();
-        for (Agent seen : agents) {
-            if (seen != a) {
-                Percept p = senseAgent(a,seen);
-                if (p != null)
-                    ps.add(p);
+        PerceptList ps = percepts.get();
+        ps.clear();
+        Viewpoint v = viewpoints.get();
+        v.look(a);
+
+        // look only as far as A can see and cares to see
+        double radius = v.reach;
+        if (sensingRadius != UNLIMITED_SENSING)
+            radius = Math.min(radius, sensingRadius);
+
+        if (radius < 0) {
+            // A wants to see nothing at all
+        } else if (radius == Double.POSITIVE_INFINITY) {
+            // A can see everybody else in the world
+            for (Agent seen : agents) {
+                if (seen != a) {
+                    senseAgent(a, seen, ps);
+                }
+            }
+        } else {
+            // A can see everybody within range
+            if (grid == null) {
+                indexAgents();
+            }
+            Nearby near = nearby.get();
+            findNear(a.getLocX(), a.getLocY(), radius + maxSpread, radius + fixedSpread, near);
+            for (int i = 0; i < near.size; i++) {
+                Agent seen = near.agents[i];
+                if (seen != a) {
+                    senseAgent(a, seen, ps);
+                }
             }
         }
 
         a.deliberate(ps);
     }
 
+    /**
+     * Agents found near some point by findNear, in list order,
+     * along with scratch space for searching each layer.
+     * Reused from query to query so searching does not allocate.
+     */
+    static class Nearby {
+        /** Positions found in the movers' grid */
+        SpatialGrid.Hits moving = new SpatialGrid.Hits();
+        /** Positions found in the fixed agents' grid */
+        SpatialGrid.Hits still = new SpatialGrid.Hits();
+        /** The agents found, valid up to size */
+        Agent[] agents = new Agent[64];
+        /** How many entries of agents are valid */
+        int size = 0;
+
+        /**
+         * Record another agent found
+         * @param a the agent
+         */
+        void add(Agent a) {
+            if (size == agents.length)
+                agents = Arrays.copyOf(agents, 2 * size);
+            agents[size++] = a;
+        }
+    }
+
+    /**
+     * Find every agent that might lie near (x, y), looking
+     * in both the movers' grid and the fixed agents' grid, 
+     * and merge what turns up back into list order.
+     * 
+     * @param x horizontal coordinate of query point
+     * @param y vertical coordinate of query point
+     * @param radius how far away to look for movers
+     * @param fixedRadius how far away to look for fixed agents
+     * @param n where to put the agents found
+     */
+    private void findNear(double x, double y, double radius, double fixedRadius, Nearby n) {
+        grid.near(x, y, radius, n.moving);
+        if (fixed.size() > 0)
+            fixedGrid.near(x, y, fixedRadius, n.still);
+        else
+            n.still.size = 0;
+        merge(n);
+    }
+
+    /**
+     * Find every agent that might be in the way of a move 
+     * from (x0, y0) to (x1, y1): movers from the movers' grid,
+     * and fixed agents by tracing the path through the raster.
+     * Only used when the fixed agents are rasterized.
+     * 
+     * @param x0 horizontal coordinate of start of path
+     * @param y0 vertical coordinate of start of path
+     * @param x1 horizontal coordinate of end of path
+     * @param y1 vertical coordinate of end of path
+     * @param radius how far from the middle of the path to look for movers
+     * @param n where to put the agents found
+     */
+    private void findAlong(double x0, double y0, double x1, double y1, double radius, Nearby n) {
+        grid.near((x0 + x1) / 2, (y0 + y1) / 2, radius, n.moving);
+        raster.trace(x0, y0, x1, y1, n.still);
+        merge(n);
+    }
+
+    /**
+     * Combine the hits in the movers' grid and among the fixed
+     * agents (by position in the fixed list) into list order
+     * 
+     * @param n hits to merge; the agents found go in n.agents
+     */
+    private void merge(Nearby n) {
+        n.size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < n.moving.size && j < n.still.size) {
+            Agent a = grid.get(n.moving.items[i]);
+            Agent b = fixed.get(n.still.items[j]);
+            if (a.seq < b.seq) {
+                n.add(a);
+                i++;
+            } else {
+                n.add(b);
+                j++;
+            }
+        }
+        for (; i < n.moving.size; i++) {
+            n.add(grid.get(n.moving.items[i]));
+        }
+        for (; j < n.still.size; j++) {
+            n.add(fixed.get(n.still.items[j]));
+        }
+    }
+
+    /**
+     * Can agent a find out which light is nearest by asking
+     * nearestLight, rather than looking at every light?
+     * Only if no light moves, and a can see all the way around,
+     * so that the nearest light is bound to be among its percepts
+     * if any light is.  The answer stays the same throughout the
+     * think pass of a step, so an agent can leave lights out of
+     * its interests and ask nearestLight in deliberate instead.
+     * 
+     * @param a agent that is thinking
+     * @return true if nearestLight gives the answer a would see
+     */
+    public boolean knowsLights(Agent a) {
+        if (grid == null) {
+            indexAgents();
+        }
+        return movingLights == 0 && a.getFieldOfViewEachSide() >= Math.PI;
+    }
+
+    /**
+     * Make the percept agent a would get of the nearest light,
+     * just as senseAgent would, using the field of nearest lights.
+     * Only good when knowsLights(a) is true.
+     * 
+     * @param a agent that is thinking
+     * @param color only consider lights of this color (by RGB value),
+     *              or null for any color
+     * @return the percept, or null if a can see no such light
+     */
+    public Percept nearestLight(Agent a, Color color) {
+        Agent light = lightField.nearest(a.getLocX(), a.getLocY(), color);
+        if (light == null)
+            return null;
+
+        double dx = displacementOnCircle(a.getLocX(), light.getLocX(), getWidth());
+        double dy = displacementOnCircle(a.getLocY(), light.getLocY(), getHeight());
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        if (sensingRadius != UNLIMITED_SENSING && distance > sensingRadius)
+            return null;
+        double direction = displacementOnCircle(a.getHeading(), Math.atan2(dy, dx), 2 * Math.PI);
+        return new Percept(Percept.ObjectCategory.LIGHT,
+                light.getColor(),
+                distance,
+                direction,
+                relativeHeading(a, light),
+                light.getForwardV());
+    }
+
+    /**
+     * Work out which way agent a should head to get to what it
+     * sees in percept p without getting stuck behind obstacles
+     * that never move.  Every agent heading for the same place
+     * shares the same routes (see FlowField), so they are worked
+     * out only once however many agents use them.
+     * 
+     * @param a agent that is thinking
+     * @param p percept of where a wants to go
+     * @return direction to turn to, relative to a's heading;
+     *         the direction of p itself if there is nothing in the way
+     *         or no way around it
+     */
+    public double routeAngle(Agent a, Percept p) {
+        if (grid == null) {
+            indexAgents();
+        }
+        double direction = a.getHeading() + p.getAngle();
+        double tx = a.getLocX() + p.getDistance() * Math.cos(direction);
+        double ty = a.getLocY() + p.getDistance() * Math.sin(direction);
+        double route = flowField.direction(a.getLocX(), a.getLocY(), tx, ty,
+                Math.max(a.getHalfWidth(), a.getHalfHeight()));
+        if (Double.isNaN(route))
+            return p.getAngle();
+        return displacementOnCircle(a.getHeading(), route, 2 * Math.PI);
+    }
+
+    /**
+     * Index where everybody is at the start of a step, 
+     * so sensing and collision detection can look at nearby agents only.
+     * With limited sensing, the grid cells are as big as the 
+     * sensing radius, so each agent looks at a 3x3 block of cells.
+     * 
+     * Only the movers are indexed afresh each step.  Fixed agents
+     * (see isFixed) have a grid of their own, built again only
+     * when one of them comes, goes, is dragged or is updated.
+     */
+    private void indexAgents() {
+        if (grid == null || !grid.covers(getWidth(), getHeight())) {
+            double cellSize = sensingRadius == UNLIMITED_SENSING ? DEFAULT_CELL_SIZE : sensingRadius;
+            grid = new SpatialGrid(getWidth(), getHeight(), cellSize);
+            fixedGrid = new SpatialGrid(getWidth(), getHeight(), cellSize);
+            fixedStale = true;
+        }
+        if (moversStale || fixedStale)
+            sortAgents();
+        if (store != null)
+            grid.rebuild(store, moverSlots, movers.size());
+        else
+            grid.rebuild(movers);
+
+        maxHalfSize = 0;
+        maxSpread = 0;
+        maxStep = 0;
+        for (Agent a: movers) {
+            maxHalfSize = Math.max(maxHalfSize, halfSize(a));
+            maxSpread = Math.max(maxSpread, spread(a));
+            maxStep = Math.max(maxStep, a.getMaxStep());
+        }
+    }
+
+    /**
+     * @param a agent in the world
+     * @return how far a reaches from its location along either axis
+     */
+    private static double halfSize(Agent a) {
+        return Math.max(a.getHalfWidth(), a.getHalfHeight());
+    }
+
+    /**
+     * @param a agent in the world
+     * @return how much nearer than its location a may be sensed
+     */
+    private static double spread(Agent a) {
+        if (!a.isExtended())
+            return 0;
+        return Math.hypot(a.getHalfWidth(), a.getHalfHeight());
+    }
+
+    /**
+     * Split the agent list into movers and fixed agents,
+     * and index the fixed agents if they have changed.
+     */
+    private void sortAgents() {
+        movers.clear();
+        movingLights = 0;
+        for (Agent a: agents) {
+            if (!isFixed(a)) {
+                movers.add(a);
+                if (a.looksLike() == Percept.ObjectCategory.LIGHT)
+                    movingLights++;
+            }
+        }
+        if (store != null) {
+            if (moverSlots.length < movers.size())
+                moverSlots = new int[Math.max(movers.size(), 2 * moverSlots.length)];
+            for (int i = 0; i < movers.size(); i++) {
+                moverSlots[i] = movers.get(i).slot;
+            }
+        }
+        moversStale = false;
+
+        if (fixedStale) {
+            fixed.clear();
+            for (Agent a: agents) {
+                if (isFixed(a))
+                    fixed.add(a);
+            }
+            fixedGrid.rebuild(fixed);
+            if (rasterCellSize != NO_RASTER) {
+                if (raster == null || !raster.covers(getWidth(), getHeight()))
+                    raster = new OccupancyRaster(getWidth(), getHeight(), rasterCellSize);
+                raster.rebuild(fixed);
+            }
+            if (lightField == null || !lightField.covers(getWidth(), getHeight()))
+                lightField = new LightField(getWidth(), getHeight(), LIGHT_CELL_SIZE);
+            lightField.rebuild(fixed);
+            if (flowField == null || !flowField.covers(getWidth(), getHeight()))
+                flowField = new FlowField(getWidth(), getHeight(), FLOW_CELL_SIZE);
+            flowField.rebuild(fixed);
+            fixedHalfSize = 0;
+            fixedSpread = 0;
+            for (Agent a: fixed) {
+                fixedHalfSize = Math.max(fixedHalfSize, halfSize(a));
+                fixedSpread = Math.max(fixedSpread, spread(a));
+            }
+            fixedStale = false;
+        }
+    }
+
     /**
      * Process the simulated input to agent A's effectors
      * designed to get A to location (newX, newY) in the world.
@@ -919,10 +2118,113 @@ public class World extends Canvas {
      * @param newY Desired updated vertical coordinate
      */
     public void tryToMove(Agent a, double newX, double newY) {
-        Double collision = null;
+        Move m = moves.get();
+        proposeMove(a, newX, newY, m);
+        resolveMove(a, m);
+    }
+
+    /**
+     * A move an agent has worked out: where it wants to go,
+     * and everyone whose box might be in the way.  Collision
+     * fractions are measured against where the others stood
+     * when the move was proposed; NaN means not measured.
+     */
+    static class Move {
+        /** Desired updated horizontal coordinate */
+        double newX;
+        /** Desired updated vertical coordinate */
+        double newY;
+        /** Agents that might be in the way, in list order */
+        Agent[] who = new Agent[16];
+        /** Fraction of the path at which each one is hit */
+        double[] when = new double[16];
+        /** How many entries of who and when are valid */
+        int size = 0;
+
+        /**
+         * Record another agent that might be in the way
+         * @param b the agent
+         * @param c collision fraction, or NaN
+         */
+        void add(Agent b, double c) {
+            if (size == who.length) {
+                who = Arrays.copyOf(who, 2 * size);
+                when = Arrays.copyOf(when, 2 * size);
+            }
+            who[size] = b;
+            when[size] = c;
+            size++;
+        }
+    }
+
+    /**
+     * Would A's path be stopped by B?
+     */
+    private static boolean blocks(Agent a, Agent b) {
+        return b.behaviorOnApproach(a.looksLike()) == Agent.InteractiveBehavior.OBSTRUCT ||
+            a.behaviorOnApproach(b.looksLike()) == Agent.InteractiveBehavior.ATTACK;
+    }
+
+    /**
+     * First half of tryToMove: find the agents that might be in A's way
+     * and measure collisions against where they stand now.
+     * Changes nothing, so moves can be proposed in parallel.
+     * 
+     * @param a Agent who wants to move
+     * @param newX Desired updated horizontal coordinate
+     * @param newY Desired updated vertical coordinate
+     * @param m where to record the move
+     */
+    void proposeMove(Agent a, double newX, double newY, Move m) {
+        m.newX = newX;
+        m.newY = newY;
+        m.size = 0;
+
+        // make sure you're actually moving
+        if (a.getLocX() == newX && a.getLocY() == newY)
+            return;
+
+        // check for collisions with agents whose boxes could reach the path
+        // (any mover may have moved up to maxStep since the grid was built;
+        // fixed agents are still where they were)
+        if (grid == null) {
+            indexAgents();
+        }
+        double reach = Math.max(Math.abs(newX - a.getLocX()), Math.abs(newY - a.getLocY())) / 2;
+        Nearby near = nearby.get();
+        if (raster != null)
+            findAlong(a.getLocX(), a.getLocY(), newX, newY, reach + maxHalfSize + maxStep, near);
+        else
+            findNear((a.getLocX() + newX) / 2, (a.getLocY() + newY) / 2, 
+                    reach + maxHalfSize + maxStep, reach + fixedHalfSize, near);
+        for (int i = 0; i < near.size; i++) {
+            Agent b = near.agents[i];
+            if (a != b) {
+                if (b.movedOn != stepCount && blocks(a, b)) {
+                    m.add(b, detectCollision(a, newX, newY, getWidth(), getHeight(), b));
+                } else {
+                    m.add(b, Double.NaN);
+                }
+            }
+        }
+    }
+
+    /**
+     * Second half of tryToMove: stop A at the first thing in its way,
+     * move it, and settle the encounter.  Anyone who moved or died
+     * since the move was proposed is checked again, so the outcome
+     * is the same as if the move had been proposed just now.
+     * 
+     * @param a Agent who wants to move
+     * @param m the move proposed for A
+     */
+    void resolveMove(Agent a, Move m) {
+        double collision = NO_COLLISION;
         Agent bumped = null;
         int width = getWidth();
         int height = getHeight();
+        double newX = m.newX;
+        double newY = m.newY;
 
         // make sure you're actually moving
         if (a.getLocX() == newX && a.getLocY() == newY)
@@ -944,31 +2246,29 @@ public class World extends Canvas {
         else
             dyunit = -1;
 
-        // check for collisions
-        for (Agent b: agents) {
-            if (a != b) {
-                if (b.behaviorOnApproach(a.looksLike()) == Agent.InteractiveBehavior.OBSTRUCT ||
-                        a.behaviorOnApproach(b.looksLike()) == Agent.InteractiveBehavior.ATTACK) {
-                    Double c = detectCollision(a, newX, newY, width, height, b);
-                    if (c != null) {
-                        if (collision == null || collision.doubleValue() > c.doubleValue()) {
-                            collision = c;
-                            bumped = b;
-                        }
-                    }
+        for (int i = 0; i < m.size; i++) {
+            Agent b = m.who[i];
+            if (blocks(a, b)) {
+                double c = m.when[i];
+                if (b.movedOn == stepCount || Double.isNaN(c))
+                    c = detectCollision(a, newX, newY, width, height, b);
+                if (c < collision) {
+                    collision = c;
+                    bumped = b;
                 }
             }
         }
 
         // limit amount moved by collision
-        if (collision != null) {
-            newX = a.getLocX() + collision.doubleValue() * (newX - a.getLocX()) - dxunit;
-            newY = a.getLocY() + collision.doubleValue() * (newY - a.getLocY()) - dyunit;
+        if (collision != NO_COLLISION) {
+            newX = a.getLocX() + collision * (newX - a.getLocX()) - dxunit;
+            newY = a.getLocY() + collision * (newY - a.getLocY()) - dyunit;
         }
 
         // wrap motion in torus
         a.setLocX(clampToCircle(newX, getWidth()));
         a.setLocY(clampToCircle(newY, getHeight()));
+        a.movedOn = stepCount;
 
         // process interaction
         if (bumped != null) {
@@ -988,18 +2288,117 @@ public class World extends Canvas {
 
     /**
      * Remove all the agents from the world that
-     * are no longer alive, and log their deaths.
+     * are no longer alive, closing up the gaps in place.
+     * Does nothing unless some agent died since the last call;
+     * logStep has already recorded the deaths.
      */
     private void removeCorpses() {
-        LinkedList<Agent> alive = new LinkedList<Agent>();
-        for (Agent a: agents) {
-            if (a.isAlive())
-                alive.add(a);
-            else
-                logDeath(a);
+        if (deaths == 0)
+            return;
+
+        int kept = 0;
+        int n = agents.size();
+        for (int i = 0; i < n; i++) {
+            Agent a = agents.get(i);
+            if (a.isAlive()) {
+                if (kept != i)
+                    agents.set(kept, a);
+                kept++;
+            } else {
+                corpses.add(a);
+            }
+        }
+        agents.subList(kept, n).clear();
+        for (Agent a: corpses) {
+            forget(a);
+            if (isFixed(a))
+                fixedStale = true;
+        }
+        moversStale = true;
+        corpses.clear();
+
+        deaths = 0;
+        if (store != null)
+            store.removeDead();
+    }
+
+    /**
+     * Share of the think pass for one thread: runs makeAgentThink 
+     * on the agents in a range of positions in the step grid,
+     * splitting the range in half while it is big.
+     */
+    class ThinkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        /** First position in the grid to think for */
+        private final int from;
+        /** Position in the grid just past the last one to think for */
+        private final int to;
+
+        ThinkTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from <= THINK_BATCH) {
+                for (int i = from; i < to; i++) {
+                    Agent agent = grid.get(i);
+                    if (agent.isAlive() && agent.perceives()) {
+                        makeAgentThink(agent);
+                    }
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ThinkTask(from, mid), new ThinkTask(mid, to));
+            }
         }
+    }
 
-        agents = alive;
+    /**
+     * Share of the act pass for one thread: living agents in a range
+     * of positions in the step grid plan their turns and speed changes
+     * and propose their moves, without changing the world.
+     */
+    class PlanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        /** First position in the grid to plan for */
+        private final int from;
+        /** Position in the grid just past the last one to plan for */
+        private final int to;
+
+        PlanTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from <= THINK_BATCH) {
+                for (int i = from; i < to; i++) {
+                    Agent agent = grid.get(i);
+                    if (agent.isAlive() && agent.moves()) {
+                        agent.plan();
+                        proposeMove(agent, agent.plannedLocX(), agent.plannedLocY(), planned[i]);
+                    }
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new PlanTask(from, mid), new PlanTask(mid, to));
+            }
+        }
+    }
+
+    /**
+     * Carry out any drag the user made during the last step
+     */
+    private void applyDrag() {
+        synchronized (dragger) {
+            if (dragged != null) {
+                dragged.setLocX(dragX);
+                dragged.setLocY(dragY);
+                dragged = null;
+                fixedStale = true;
+            }
+        }
     }
 
     /**
@@ -1008,28 +2407,59 @@ public class World extends Canvas {
      * and the environment carries out the effects of
      * this behavior.
      */
-    public void stepWorld() {
+    public synchronized void stepWorld() {
         stepCount++;
-
-        // For each living agent, figure out what there is to do based on
-        // the current state of the world
-        for (Agent agent: agents) {
-            if (agent.isAlive()) {
-                makeAgentThink(agent);
+        applyDrag();
+        indexAgents();
+
+        // For each living agent that looks around, figure out what 
+        // there is to do based on the current state of the world
+        if (threads > 1) {
+            if (pool == null)
+                pool = new ForkJoinPool(threads);
+            pool.invoke(new ThinkTask(0, grid.size()));
+        } else {
+            for (Agent agent: movers) {
+                if (agent.isAlive() && agent.perceives()) {
+                    makeAgentThink(agent);
+                }
             }
         }
 
-        // For each living agent, update the state of each agent based
-        // on their decisions
-        for (Agent agent: agents) {
-            if (agent.isAlive()) {
-                agent.act();
+        // For each living agent that can move, update the state of 
+        // each agent based on their decisions.  In parallel, agents plan and propose
+        // their moves together, but the moves are carried out one at
+        // a time in list order, exactly as the serial loop would.
+        if (threads > 1) {
+            int n = grid.size();
+            if (planned.length < n) {
+                int old = planned.length;
+                planned = Arrays.copyOf(planned, Math.max(n, 2 * old));
+                for (int i = old; i < planned.length; i++) {
+                    planned[i] = new Move();
+                }
+            }
+            pool.invoke(new PlanTask(0, n));
+            for (int i = 0; i < n; i++) {
+                Agent agent = grid.get(i);
+                if (agent.isAlive() && agent.moves()) {
+                    agent.commitPlan();
+                    resolveMove(agent, planned[i]);
+                }
+            }
+        } else {
+            for (Agent agent: movers) {
+                if (agent.isAlive() && agent.moves()) {
+                    agent.act();
+                }
             }
         }
 
-        // Give feedback to the designer of the world
-        repaint();  
         logStep();
         removeCorpses();
+
+        // Give feedback to the designer of the world
+        if (autoRepaint || frameWanted)
+            publishFrame();
     }
 }